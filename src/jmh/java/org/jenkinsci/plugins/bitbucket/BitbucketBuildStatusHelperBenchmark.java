@@ -0,0 +1,62 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.bitbucket.validator.BitbucketHostValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// unlike the others this benchmark lives in the plugin package and not in benchmark: it measures the package
+// private key helpers of BitbucketBuildStatusHelper, which are not worth making public for it. Repository url parsing
+// is measured by BitbucketRepositoryParserBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitbucketBuildStatusHelperBenchmark {
+
+    private final BitbucketHostValidator hostValidator = new BitbucketHostValidator();
+
+    @Benchmark
+    public String defaultBuildKey() {
+        return BitbucketBuildStatusHelper.defaultBitbucketBuildKey("my-folder/my-project/master", 42);
+    }
+
+    @Benchmark
+    public boolean validateHost() {
+        return this.hostValidator.isValid("altssh.bitbucket.org");
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// run with -prof gc to compare gc.alloc.rate.norm, the bytes allocated per notification
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitbucketBuildStatusSerializerBenchmark {
+
+    private final BitbucketBuildStatus buildStatus = new BitbucketBuildStatus(BitbucketBuildStatus.SUCCESSFUL,
+            "0cc175b9c0f1b6a831c399e269772661", "https://ci.example.com/job/my-project/job/master/42/display/redirect",
+            "my-project/master #42", "1234 of 1240 tests passed");
+
+    // what every notification paid before: a new pretty printing Gson and a JsonObject tree
+    @Benchmark
+    public byte[] gsonTree() throws Exception {
+        GsonBuilder gsonBuilder = new GsonBuilder();
+        gsonBuilder.registerTypeAdapter(BitbucketBuildStatus.class, new BitbucketBuildStatusSerializer());
+        gsonBuilder.setPrettyPrinting();
+        Gson gson = gsonBuilder.create();
+
+        return gson.toJson(this.buildStatus).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public byte[] streaming() {
+        return BitbucketBuildStatusSerializer.toJsonBytes(this.buildStatus);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.bitbucket.api.BitbucketApi;
+import org.jenkinsci.plugins.bitbucket.api.BitbucketApiService;
+import org.jenkinsci.plugins.bitbucket.api.BitbucketHttpRequest;
+import org.jenkinsci.plugins.bitbucket.api.BitbucketHttpResponse;
+import org.jenkinsci.plugins.bitbucket.api.BitbucketTransport;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.scribe.model.OAuthConfig;
+import org.scribe.model.OAuthConstants;
+import org.scribe.model.Token;
+import org.scribe.model.Verb;
+
+// fetches a token, builds, signs and sends a status notification the way BitbucketNotificationSender does, all
+// against a local stub server
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitbucketRequestBenchmark {
+
+    @Param({ BitbucketTransport.POOLED, BitbucketTransport.SCRIBE })
+    public String transportType;
+
+    private static final String ACCESS_TOKEN_RESPONSE =
+            "{\"access_token\": \"benchmark-access-token\", \"token_type\": \"bearer\", \"expires_in\": 7200}";
+    private static final String STATUS_RESPONSE = "{\"state\": \"SUCCESSFUL\"}";
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private String statusUrl;
+    private BitbucketTransport transport;
+    private BitbucketApiService apiService;
+    private Token cachedToken;
+    private final BitbucketBuildStatus buildStatus = new BitbucketBuildStatus(BitbucketBuildStatus.SUCCESSFUL,
+            "0cc175b9c0f1b6a831c399e269772661", "https://ci.example.com/job/my-project/job/master/42/display/redirect",
+            "my-project/master #42", "1234 of 1240 tests passed");
+
+    @Setup
+    public void startServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[4096];
+                while (in.read(buffer) != -1) {
+                    // the request body has to be consumed for the connection to be reused
+                }
+                in.close();
+
+                boolean tokenRequest = exchange.getRequestURI().getPath().endsWith("/access_token");
+                byte[] response = (tokenRequest ? ACCESS_TOKEN_RESPONSE : STATUS_RESPONSE).getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(tokenRequest ? 200 : 201, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        this.serverExecutor = Executors.newFixedThreadPool(4);
+        this.server.setExecutor(this.serverExecutor);
+        this.server.start();
+
+        String baseUrl = "http://127.0.0.1:" + this.server.getAddress().getPort();
+        this.statusUrl = baseUrl +
+                "/2.0/repositories/my-team/my-project/commit/a83c709e9d514421ef614ef0a1117366c84c6304/statuses/build";
+        // the token request goes through the shared transport, so it has to be the one being measured as well
+        BitbucketTransport.configure(this.transportType, 10, 10);
+        this.transport = BitbucketTransport.get();
+        this.apiService = (BitbucketApiService) new BitbucketApi(baseUrl + "/site/oauth2/")
+                .createService(new OAuthConfig("key", "secret"));
+        this.cachedToken = this.apiService.getAccessToken(OAuthConstants.EMPTY_TOKEN, null);
+    }
+
+    @TearDown
+    public void stopServer() {
+        this.server.stop(0);
+        this.serverExecutor.shutdownNow();
+    }
+
+    // a notification whose token is not cached: fetches the token, then builds, signs and sends the status
+    @Benchmark
+    public BitbucketHttpResponse sendStatus() throws IOException {
+        return this.send(this.apiService.getAccessToken(OAuthConstants.EMPTY_TOKEN, null));
+    }
+
+    // the common case once BitbucketTokenCache holds the token of the credentials
+    @Benchmark
+    public BitbucketHttpResponse sendStatusWithCachedToken() throws IOException {
+        return this.send(this.cachedToken);
+    }
+
+    private BitbucketHttpResponse send(Token token) throws IOException {
+        BitbucketHttpRequest request = new BitbucketHttpRequest(Verb.POST.name(), this.statusUrl);
+        request.addHeader("Content-type", "application/json");
+        request.setBody(BitbucketBuildStatusSerializer.toJsonBytes(this.buildStatus));
+        this.apiService.signRequest(token, request);
+
+        return this.transport.execute(request);
+    }
+}
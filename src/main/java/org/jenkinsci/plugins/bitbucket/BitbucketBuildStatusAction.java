@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusResource;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketNotificationBatch;
+
+// remembers the status resources resolved for a run, so later notifications of the run and of its successor
+// don't have to walk the SCMs again
+public class BitbucketBuildStatusAction extends InvisibleAction {
+
+    private List<BitbucketBuildStatusResource> buildStatusResources;
+    // resources are resolved again when a pipeline checked out another repository or revision since
+    private String scmIdentity;
+    // the last status sent per commit and key, the reconciler sends them again when bitbucket lost them
+    private LinkedHashMap<String, SentStatus> sentStatuses;
+    // "N of M tests passed", kept with the run once its test results can no longer change
+    private String testSummary;
+    // older versions also kept the summary of running pipelines, those are counted again
+    private boolean testSummaryComplete;
+    // notifications of steps which did not wait for them, they only live as long as the run is in memory
+    private transient List<BitbucketNotificationBatch> outstanding;
+
+    static synchronized BitbucketBuildStatusAction getOrCreate(Run<?, ?> build) {
+        BitbucketBuildStatusAction action = build.getAction(BitbucketBuildStatusAction.class);
+        if (action == null) {
+            action = new BitbucketBuildStatusAction();
+            build.addAction(action);
+        }
+
+        return action;
+    }
+
+    // returns null when nothing was resolved yet for these SCMs and revisions
+    public synchronized List<BitbucketBuildStatusResource> getBuildStatusResources(String scmIdentity) {
+        if (this.buildStatusResources == null || !scmIdentity.equals(this.scmIdentity)) {
+            return null;
+        }
+
+        return Collections.unmodifiableList(this.buildStatusResources);
+    }
+
+    public synchronized List<BitbucketBuildStatusResource> getBuildStatusResources() {
+        return this.buildStatusResources == null
+                ? Collections.<BitbucketBuildStatusResource>emptyList()
+                : Collections.unmodifiableList(this.buildStatusResources);
+    }
+
+    synchronized void setBuildStatusResources(List<BitbucketBuildStatusResource> buildStatusResources, String scmIdentity) {
+        // a plain list, the action is persisted with the run
+        this.buildStatusResources = new ArrayList<BitbucketBuildStatusResource>(buildStatusResources);
+        this.scmIdentity = scmIdentity;
+    }
+
+    public synchronized List<SentStatus> getSentStatuses() {
+        return this.sentStatuses == null
+                ? Collections.<SentStatus>emptyList() : new ArrayList<SentStatus>(this.sentStatuses.values());
+    }
+
+    synchronized void addSentStatus(String statusKey, SentStatus sentStatus) {
+        if (this.sentStatuses == null) {
+            this.sentStatuses = new LinkedHashMap<String, SentStatus>();
+        }
+        this.sentStatuses.put(statusKey, sentStatus);
+    }
+
+    // null until the test results of the run were final when a status was sent
+    synchronized String getTestSummary() {
+        return this.testSummaryComplete ? this.testSummary : null;
+    }
+
+    synchronized void setTestSummary(String testSummary) {
+        this.testSummary = testSummary;
+        this.testSummaryComplete = true;
+    }
+
+    synchronized void addOutstanding(BitbucketNotificationBatch notifications) {
+        if (this.outstanding == null) {
+            this.outstanding = new ArrayList<BitbucketNotificationBatch>();
+        }
+        this.outstanding.add(notifications);
+    }
+
+    // hands out the notifications not waited for yet, each of them only once
+    synchronized List<BitbucketNotificationBatch> takeOutstanding() {
+        List<BitbucketNotificationBatch> taken = this.outstanding == null
+                ? Collections.<BitbucketNotificationBatch>emptyList() : this.outstanding;
+        this.outstanding = null;
+
+        return taken;
+    }
+
+    // a status exactly as it was sent: the resource it went to, the key it had and the credentials used
+    public static class SentStatus {
+        private final BitbucketBuildStatusResource buildStatusResource;
+        private final BitbucketBuildStatus buildStatus;
+        private final String credentialsId;
+        // the run's own key, as opposed to one given to a step, e.g. for a stage
+        private final boolean runKey;
+
+        SentStatus(BitbucketBuildStatusResource buildStatusResource, BitbucketBuildStatus buildStatus,
+                   String credentialsId, boolean runKey) {
+            this.buildStatusResource = buildStatusResource;
+            this.buildStatus = buildStatus;
+            this.credentialsId = credentialsId;
+            this.runKey = runKey;
+        }
+
+        public BitbucketBuildStatusResource getBuildStatusResource() {
+            return this.buildStatusResource;
+        }
+
+        public BitbucketBuildStatus getBuildStatus() {
+            return this.buildStatus;
+        }
+
+        public String getCredentialsId() {
+            return this.credentialsId;
+        }
+
+        public boolean isRunKey() {
+            return this.runKey;
+        }
+    }
+}
@@ -24,48 +24,58 @@
 
 package org.jenkinsci.plugins.bitbucket;
 
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
-import com.cloudbees.plugins.credentials.domains.URIRequirementBuilder;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import hudson.EnvVars;
 import hudson.model.*;
 import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.Revision;
+import hudson.plugins.git.util.BuildData;
 import hudson.plugins.mercurial.MercurialSCM;
+import hudson.plugins.mercurial.MercurialTagAction;
+import hudson.scm.ChangeLogSet;
 import hudson.scm.SCM;
 import hudson.tasks.test.AbstractTestResultAction;
 import hudson.util.LogTaskListener;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.eclipse.jgit.transport.URIish;
 
-import org.jenkinsci.plugins.bitbucket.api.BitbucketApi;
-import org.jenkinsci.plugins.bitbucket.api.BitbucketApiService;
 import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
 import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusResource;
-import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusSerializer;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketNotification;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketNotificationBatch;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketNotificationDispatcher;
+import org.jenkinsci.plugins.bitbucket.scm.BitbucketRepositoryParser;
 import org.jenkinsci.plugins.bitbucket.scm.GitScmAdapter;
 import org.jenkinsci.plugins.bitbucket.scm.MercurialScmAdapter;
 import org.jenkinsci.plugins.bitbucket.scm.ScmAdapter;
 import org.jenkinsci.plugins.bitbucket.validator.BitbucketHostValidator;
 import org.jenkinsci.plugins.displayurlapi.DisplayURLProvider;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
-import org.scribe.model.*;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 
 class BitbucketBuildStatusHelper {
     private static final Logger logger = Logger.getLogger(BitbucketBuildStatusHelper.class.getName());
+    // commits of the change log notified besides the built revision, when all commits are notified
+    static final int DEFAULT_MAX_CHANGESET_COMMITS = 20;
     private static final BitbucketHostValidator hostValidator = new BitbucketHostValidator();
 
     private static List<BitbucketBuildStatusResource> createBuildStatusResources(final SCM scm,
-                                                                                 final Run<?, ?> build) throws Exception {
+                                                                                 final Run<?, ?> build,
+                                                                                 final BuildEnvironment environment) throws Exception {
         List<BitbucketBuildStatusResource> buildStatusResources = new ArrayList<BitbucketBuildStatusResource>();
 
         if (scm == null) {
@@ -92,65 +102,219 @@ class BitbucketBuildStatusHelper {
             }
 
             // expand parameters on repo url
-            String repoUrl = build.getEnvironment(new LogTaskListener(logger, Level.INFO)).expand(repoUri.getPath());
-            if (repoUrl.endsWith("/")) {
-                //fix JENKINS-49902
-                repoUrl = repoUrl.substring(0, repoUrl.length() - 1);
+            String repoUrl = environment.expand(repoUri.getPath());
+
+            BitbucketBuildStatusResource buildStatusResource = createBuildStatusResource(repoUrl, commitRepoPair.getKey(),
+                    repoUri.getHost());
+            if (buildStatusResource != null) {
+                buildStatusResources.add(buildStatusResource);
             }
+        }
 
-            // extract bitbucket user name and repository name from repo URI
-            String repoName = repoUrl.substring(
-                    repoUrl.lastIndexOf("/") + 1,
-                    repoUrl.contains(".git") ? repoUrl.indexOf(".git") : repoUrl.length()
-            );
+        return buildStatusResources;
+    }
 
-            if (repoName.isEmpty()) {
-                logger.log(Level.INFO, "Bitbucket build notifier could not extract the repository name from the repository URL: " + repoUrl);
-                continue;
+    static BitbucketBuildStatusResource createBuildStatusResource(final String repoUrl, final String commitId, final String host) {
+        // extract bitbucket user name and repository name from repo URI
+        BitbucketRepositoryParser.Repository repository = BitbucketRepositoryParser.get().parse(repoUrl);
+        if (repository == null) {
+            logger.log(Level.INFO, "Bitbucket build notifier could not extract the user name and repository name from the repository URL: " + repoUrl);
+            return null;
+        }
+
+        if (commitId == null) {
+            logger.log(Level.INFO, "Commit ID could not be found!");
+            return null;
+        }
+
+        return new BitbucketBuildStatusResource(repository.getOwner(), repository.getSlug(), commitId, host);
+    }
+
+    public static List<BitbucketBuildStatusResource> createBuildStatusResources(final Run<?, ?> build) throws Exception {
+        return createBuildStatusResources(build, getSCMs(build));
+    }
+
+    private static List<BitbucketBuildStatusResource> createBuildStatusResources(final Run<?, ?> build,
+                                                                                 final Collection<? extends SCM> scms) throws Exception {
+        List<BitbucketBuildStatusResource> buildStatusResources = new ArrayList<BitbucketBuildStatusResource>();
+        // shared by all repositories of the build, the environment is only computed if an url needs expanding
+        BuildEnvironment environment = new BuildEnvironment(build);
+
+        for (SCM scm : scms) {
+            buildStatusResources.addAll(createBuildStatusResources(scm, build, environment));
+        }
+
+        return buildStatusResources;
+    }
+
+    private static Collection<? extends SCM> getSCMs(final Run<?, ?> build) {
+        Job<?, ?> project = build.getParent();
+        if (project instanceof WorkflowJob) {
+            return ((WorkflowJob)project).getSCMs();
+        } else if (project instanceof AbstractProject) {
+            return Collections.singletonList(((AbstractProject)project).getScm());
+        }
+
+        return Collections.emptyList();
+    }
+
+    // resolves the resources once per run, later notifications of the same run reuse them
+    private static List<BitbucketBuildStatusResource> getBuildStatusResources(final Run<?, ?> build,
+                                                                              final BitbucketBuildStatusAction action) throws Exception {
+        Collection<? extends SCM> scms = getSCMs(build);
+        String scmIdentity = getScmIdentity(build, scms);
+        List<BitbucketBuildStatusResource> buildStatusResources = action.getBuildStatusResources(scmIdentity);
+        if (buildStatusResources == null) {
+            buildStatusResources = createBuildStatusResources(build, scms);
+            // nothing checked out yet, try again on the next notification
+            if (!buildStatusResources.isEmpty()) {
+                action.setBuildStatusResources(buildStatusResources, scmIdentity);
             }
+        }
+
+        return buildStatusResources;
+    }
+
+    // what the resources are resolved from: the repositories of the SCMs and the revisions built from them,
+    // read without expanding anything
+    private static String getScmIdentity(final Run<?, ?> build, final Collection<? extends SCM> scms) {
+        StringBuilder identity = new StringBuilder();
+        for (SCM scm : scms) {
+            identity.append(scm.getKey()).append('\n');
+        }
+        for (BuildData buildData : build.getActions(BuildData.class)) {
+            Revision revision = buildData.getLastBuiltRevision();
+            identity.append(revision != null ? revision.getSha1String() : "-").append('\n');
+        }
+        for (MercurialTagAction tag : build.getActions(MercurialTagAction.class)) {
+            identity.append(tag.getId()).append('\n');
+        }
+
+        return identity.toString();
+    }
+
+    // the commits of the build's change log get the status of the revision built from the same repository,
+    // coalesced and capped per build
+    private static List<BitbucketBuildStatusResource> addChangeSetCommits(final Run<?, ?> build,
+                                                                          final List<BitbucketBuildStatusResource> buildStatusResources,
+                                                                          final TaskListener listener) {
+        if (buildStatusResources.isEmpty()) {
+            return buildStatusResources;
+        }
 
-            String userName = repoUrl.substring(0, repoUrl.lastIndexOf("/" + repoName));
-            if (userName.contains("/")) {
-                userName = userName.substring(userName.indexOf("/") + 1, userName.length());
+        List<Set<String>> changeSets = new ArrayList<Set<String>>();
+        for (ChangeLogSet<? extends ChangeLogSet.Entry> changeSet : getChangeSets(build)) {
+            Set<String> commitIds = new LinkedHashSet<String>();
+            for (ChangeLogSet.Entry entry : changeSet) {
+                if (entry.getCommitId() != null) {
+                    commitIds.add(entry.getCommitId());
+                }
             }
-            if (userName.isEmpty()) {
-                logger.log(Level.INFO, "Bitbucket build notifier could not extract the user name from the repository URL: " + repoUrl + " with repository name: " + repoName);
+            changeSets.add(commitIds);
+        }
+
+        // a freestyle build has a single SCM, its change log can only be the one of the notified repository
+        return addChangeSetCommits(changeSets, build instanceof AbstractBuild, buildStatusResources,
+                BitbucketNotifierConfiguration.get().getMaxChangeSetCommits(), listener);
+    }
+
+    // takes the commit ids of every change log set of the build
+    static List<BitbucketBuildStatusResource> addChangeSetCommits(final List<Set<String>> changeSets,
+                                                                  final boolean singleCheckout,
+                                                                  final List<BitbucketBuildStatusResource> buildStatusResources,
+                                                                  final int maxCommits,
+                                                                  final TaskListener listener) {
+        List<BitbucketBuildStatusResource> allResources = new ArrayList<BitbucketBuildStatusResource>(buildStatusResources);
+        Set<String> notified = new HashSet<String>();
+        for (BitbucketBuildStatusResource buildStatusResource : buildStatusResources) {
+            notified.add(repositoryCommit(buildStatusResource, buildStatusResource.getCommitId()));
+        }
+        int found = 0;
+        for (Set<String> commitIds : changeSets) {
+            BitbucketBuildStatusResource builtRevision = getBuiltRevision(commitIds, singleCheckout, buildStatusResources);
+            if (builtRevision == null) {
+                // a shared library or another checkout which is not notified, its commits belong elsewhere
                 continue;
             }
 
-            String commitId = commitRepoPair.getKey();
-            if (commitId == null) {
-                logger.log(Level.INFO, "Commit ID could not be found!");
-                continue;
+            for (String entryCommitId : commitIds) {
+                if (!notified.add(repositoryCommit(builtRevision, entryCommitId))) {
+                    continue;
+                }
+                found++;
+                if (allResources.size() - buildStatusResources.size() < maxCommits) {
+                    allResources.add(new BitbucketBuildStatusResource(builtRevision.getOwner(), builtRevision.getRepoSlug(),
+                            entryCommitId, builtRevision.getHost()));
+                }
             }
+        }
+        int added = allResources.size() - buildStatusResources.size();
+        if (found > added) {
+            listener.getLogger().println("Bitbucket notifier notifies " + added + " of the " + found +
+                    " commits in the change log, the limit is configured globally");
+        }
 
-            buildStatusResources.add(new BitbucketBuildStatusResource(userName, repoName, commitId));
+        return allResources;
+    }
+
+    // the change log of a checkout leads up to the revision it built, which tells the repository of its commits
+    private static BitbucketBuildStatusResource getBuiltRevision(final Set<String> commitIds, final boolean singleCheckout,
+                                                                 final List<BitbucketBuildStatusResource> buildStatusResources) {
+        for (BitbucketBuildStatusResource buildStatusResource : buildStatusResources) {
+            if (commitIds.contains(buildStatusResource.getCommitId())) {
+                return buildStatusResource;
+            }
+        }
+        if (singleCheckout && buildStatusResources.size() == 1) {
+            return buildStatusResources.get(0);
         }
 
-        return buildStatusResources;
+        return null;
     }
 
-    public static List<BitbucketBuildStatusResource> createBuildStatusResources(final Run<?, ?> build) throws Exception {
-        Job<?, ?> project = build.getParent();
-        List<BitbucketBuildStatusResource> buildStatusResources = new ArrayList<BitbucketBuildStatusResource>();
+    private static String repositoryCommit(final BitbucketBuildStatusResource buildStatusResource, final String commitId) {
+        return buildStatusResource.getHost() + "/" + buildStatusResource.getOwner() + "/" +
+                buildStatusResource.getRepoSlug() + "/" + commitId;
+    }
 
-        if (project instanceof WorkflowJob) {
-            Collection<? extends SCM> scms = ((WorkflowJob)project).getSCMs();
+    private static List<? extends ChangeLogSet<? extends ChangeLogSet.Entry>> getChangeSets(final Run<?, ?> build) {
+        if (build instanceof WorkflowRun) {
+            return ((WorkflowRun) build).getChangeSets();
+        } else if (build instanceof AbstractBuild) {
+            return Collections.singletonList(((AbstractBuild<?, ?>) build).getChangeSet());
+        }
 
-            for (SCM scm : scms) {
-                buildStatusResources.addAll(createBuildStatusResources(scm, build));
-            }
-        } else if (project instanceof AbstractProject) {
-            SCM scm = ((AbstractProject)project).getScm();
-            buildStatusResources = createBuildStatusResources(scm, build);
+        return Collections.emptyList();
+    }
+
+    // runs all EnvironmentContributors at most once per notification, and not at all for urls without variables
+    private static class BuildEnvironment {
+        private final Run<?, ?> build;
+        private EnvVars envVars;
+
+        BuildEnvironment(Run<?, ?> build) {
+            this.build = build;
         }
 
-        return buildStatusResources;
+        String expand(String value) throws IOException, InterruptedException {
+            if (value == null || value.indexOf('$') < 0) {
+                return value;
+            }
+            if (this.envVars == null) {
+                this.envVars = this.build.getEnvironment(new LogTaskListener(logger, Level.INFO));
+            }
+
+            return this.envVars.expand(value);
+        }
     }
 
     public static String defaultBitbucketBuildKeyFromBuild(Run<?, ?> build) {
         Job<?, ?> project = build.getParent();
-        return DigestUtils.md5Hex(project.getFullName() + "#" + build.getNumber());
+        return defaultBitbucketBuildKey(project.getFullName(), build.getNumber());
+    }
+
+    static String defaultBitbucketBuildKey(String projectFullName, int buildNumber) {
+        return DigestUtils.md5Hex(projectFullName + "#" + buildNumber);
     }
 
     public static String uniqueBitbucketBuildKeyFromBuild(Run<?, ?> build) {
@@ -170,12 +334,30 @@ class BitbucketBuildStatusHelper {
 
     public static String defaultBitbucketBuildDescriptionFromBuild(Run<?, ?> build) {
         AbstractTestResultAction testResult = build.getAction(AbstractTestResultAction.class);
-        String description = "";
-        if (testResult != null) {
-            int passedCount = testResult.getTotalCount() - testResult.getFailCount();
-            description = passedCount + " of " + testResult.getTotalCount() + " tests passed";
+        if (testResult == null) {
+            return "";
+        }
+
+        // the counts may load a large report from disk, so they are asked for once the results are final:
+        // freestyle builds attach them once, a running pipeline merges every junit step into the same action.
+        // While a pipeline runs, the action keeps the counts of what it merged in memory.
+        if (build.isBuilding() && !(build instanceof AbstractBuild)) {
+            return countTestSummary(testResult);
         }
-        return description;
+
+        BitbucketBuildStatusAction action = BitbucketBuildStatusAction.getOrCreate(build);
+        String summary = action.getTestSummary();
+        if (summary == null) {
+            summary = countTestSummary(testResult);
+            action.setTestSummary(summary);
+        }
+
+        return summary;
+    }
+
+    private static String countTestSummary(AbstractTestResultAction testResult) {
+        int totalCount = testResult.getTotalCount();
+        return (totalCount - testResult.getFailCount()) + " of " + totalCount + " tests passed";
     }
 
     public static String buildUrlFromBuild(Run<?, ?> build) {
@@ -195,12 +377,12 @@ class BitbucketBuildStatusHelper {
             buildName = defaultBitbucketBuildNameFromBuild(build);
         }
         String buildUrl = buildUrlFromBuild(build);
-        String description = defaultBitbucketBuildDescriptionFromBuild(build);
 
-        return new BitbucketBuildStatus(buildState, buildKey, buildUrl, buildName, description);
+        // the description is filled in by notifyBuildStatus once there is something to send
+        return new BitbucketBuildStatus(buildState, buildKey, buildUrl, buildName, null);
     }
 
-    private static String guessBitbucketBuildState(final Result result) {
+    static String guessBitbucketBuildState(final Result result) {
 
         String state;
 
@@ -219,87 +401,86 @@ class BitbucketBuildStatusHelper {
         return state;
     }
 
-    public static void notifyBuildStatus(UsernamePasswordCredentials credentials, boolean overrideLatestBuild,
+    public static BitbucketNotificationBatch notifyBuildStatus(UsernamePasswordCredentials credentials, boolean overrideLatestBuild,
                                          final Run<?, ?> build, final TaskListener listener) throws Exception {
-        notifyBuildStatus(credentials, overrideLatestBuild, build, listener, createBitbucketBuildStatusFromBuild(build, overrideLatestBuild), null, null);
+        return notifyBuildStatus(credentials, overrideLatestBuild, build, listener, false);
+    }
+
+    public static BitbucketNotificationBatch notifyBuildStatus(UsernamePasswordCredentials credentials, boolean overrideLatestBuild,
+                                         final Run<?, ?> build, final TaskListener listener, boolean allCommits) throws Exception {
+        return notifyBuildStatus(credentials, overrideLatestBuild, build, listener, createBitbucketBuildStatusFromBuild(build, overrideLatestBuild), null, null, false, allCommits);
     }
 
-    public static void notifyBuildStatus(UsernamePasswordCredentials credentials, boolean overrideLatestBuild,
+    public static BitbucketNotificationBatch notifyBuildStatus(UsernamePasswordCredentials credentials, boolean overrideLatestBuild,
                                          final Run<?, ?> build, final TaskListener listener,
-                                         BitbucketBuildStatus buildStatus, String repoSlug, String commitId) throws Exception {
+                                         BitbucketBuildStatus buildStatus, String repoSlug, String commitId,
+                                         boolean force, boolean allCommits) throws Exception {
 
-        List<BitbucketBuildStatusResource> buildStatusResources = createBuildStatusResources(build);
+        BitbucketBuildStatusAction action = BitbucketBuildStatusAction.getOrCreate(build);
+        List<BitbucketBuildStatusResource> buildStatusResources = getBuildStatusResources(build, action);
+        if (allCommits && repoSlug == null && commitId == null) {
+            buildStatusResources = addChangeSetCommits(build, buildStatusResources, listener);
+        }
+
+        BitbucketNotificationBatch notifications = new BitbucketNotificationBatch(buildStatus.getState());
+        if (buildStatusResources.isEmpty()) {
+            return notifications;
+        }
+
+        if (buildStatus.getDescription() == null) {
+            buildStatus = new BitbucketBuildStatus(buildStatus.getState(), buildStatus.getKey(), buildStatus.getUrl(),
+                    buildStatus.getName(), defaultBitbucketBuildDescriptionFromBuild(build));
+        }
 
         Run<?, ?> prevBuild = build.getPreviousBuild();
         List<BitbucketBuildStatusResource> prevBuildStatusResources = new ArrayList<BitbucketBuildStatusResource>();
+        String prevBuildKey = null;
         if (prevBuild != null && prevBuild.getResult() != null && prevBuild.getResult() == Result.ABORTED) {
-            prevBuildStatusResources = createBuildStatusResources(prevBuild);
+            BitbucketBuildStatusAction prevAction = prevBuild.getAction(BitbucketBuildStatusAction.class);
+            if (prevAction != null && !prevAction.getBuildStatusResources().isEmpty()) {
+                prevBuildStatusResources = prevAction.getBuildStatusResources();
+            } else {
+                // runs from before the action existed
+                prevBuildStatusResources = createBuildStatusResources(prevBuild);
+            }
+            // the key the aborted run got by default, whatever keys its steps were given
+            prevBuildKey = overrideLatestBuild ? uniqueBitbucketBuildKeyFromBuild(prevBuild)
+                    : defaultBitbucketBuildKeyFromBuild(prevBuild);
         }
 
+        // the dispatcher sends the notifications of all repositories concurrently
         for (BitbucketBuildStatusResource buildStatusResource : buildStatusResources) {
 
             // if previous build was manually aborted by the user and revision is the same than the current one
             // then update the bitbucket build status resource with current status and current build number
             for (BitbucketBuildStatusResource prevBuildStatusResource : prevBuildStatusResources) {
                 if (prevBuildStatusResource.getCommitId().equals(buildStatusResource.getCommitId())) {
-                    BitbucketBuildStatus prevBuildStatus = createBitbucketBuildStatusFromBuild(prevBuild, overrideLatestBuild);
-                    buildStatus.setKey(prevBuildStatus.getKey());
+                    // copy instead of setKey, notifications submitted before are still waiting to be sent
+                    buildStatus = new BitbucketBuildStatus(buildStatus.getState(), prevBuildKey,
+                            buildStatus.getUrl(), buildStatus.getName(), buildStatus.getDescription());
 
                     break;
                 }
             }
 
             if (repoSlug != null && commitId != null) {
-                buildStatusResource = new BitbucketBuildStatusResource(buildStatusResource.getOwner(), repoSlug, commitId);
+                buildStatusResource = new BitbucketBuildStatusResource(buildStatusResource.getOwner(), repoSlug, commitId,
+                        buildStatusResource.getHost());
             }
 
-            sendBuildStatusNotification(credentials, build, buildStatusResource, buildStatus, listener);
+            BitbucketNotification notification = new BitbucketNotification(credentials, buildStatusResource, buildStatus,
+                    listener, build.getParent().getFullName(), force);
+            notifications.add(buildStatusResource, BitbucketNotificationDispatcher.get().submit(notification));
+            action.addSentStatus(notification.getStatusKey(), new BitbucketBuildStatusAction.SentStatus(buildStatusResource,
+                    buildStatus, notification.getCredentialsId(), buildStatus.getKey().equals(prevBuildKey) ||
+                    buildStatus.getKey().equals(defaultBitbucketBuildKeyFromBuild(build)) ||
+                    buildStatus.getKey().equals(uniqueBitbucketBuildKeyFromBuild(build))));
         }
-    }
-
-    public static void sendBuildStatusNotification(final UsernamePasswordCredentials credentials,
-                                                   final Run<?, ?> build,
-                                                   final BitbucketBuildStatusResource buildStatusResource,
-                                                   final BitbucketBuildStatus buildStatus,
-                                                   final TaskListener listener) throws Exception {
-        if (credentials == null) {
-            throw new Exception("Credentials could not be found!");
-        }
-
-        OAuthConfig config = new OAuthConfig(credentials.getUsername(), credentials.getPassword().getPlainText());
-        BitbucketApiService apiService = (BitbucketApiService) new BitbucketApi().createService(config);
-
-        GsonBuilder gsonBuilder = new GsonBuilder();
-        gsonBuilder.registerTypeAdapter(BitbucketBuildStatus.class, new BitbucketBuildStatusSerializer());
-        gsonBuilder.setPrettyPrinting();
-        Gson gson = gsonBuilder.create();
-
-        OAuthRequest request = new OAuthRequest(Verb.POST, buildStatusResource.generateUrl(Verb.POST));
-        request.addHeader("Content-type", "application/json");
-        request.addPayload(gson.toJson(buildStatus));
-
-        Token token = apiService.getAccessToken(OAuthConstants.EMPTY_TOKEN, null);
-        apiService.signRequest(token, request);
 
-        Response response = request.send();
-
-        logger.info("This request was sent: " + request.getBodyContents());
-        logger.info("This response was received: " + response.getBody());
-        listener.getLogger().println("Sending build status " + buildStatus.getState() +
-                " for commit " + buildStatusResource.getCommitId() + " to BitBucket is done!");
+        return notifications;
     }
 
     public static StandardUsernamePasswordCredentials getCredentials(String credentialsId, Job<?,?> owner) {
-        if (credentialsId != null) {
-            for (StandardUsernamePasswordCredentials c : CredentialsProvider.lookupCredentials(
-                    StandardUsernamePasswordCredentials.class, owner, null,
-                    URIRequirementBuilder.fromUri(BitbucketApi.OAUTH_ENDPOINT).build())) {
-                if (c.getId().equals(credentialsId)) {
-                    return c;
-                }
-            }
-        }
-
-        return null;
+        return BitbucketCredentialsCache.get().getCredentials(credentialsId, owner);
     }
 }
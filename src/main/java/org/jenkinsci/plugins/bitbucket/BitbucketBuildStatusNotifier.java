@@ -24,12 +24,9 @@
 
 package org.jenkinsci.plugins.bitbucket;
 
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardUsernameListBoxModel;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
-import com.cloudbees.plugins.credentials.domains.DomainRequirement;
-import com.cloudbees.plugins.credentials.domains.URIRequirementBuilder;
 import hudson.Extension;
 import hudson.Launcher;
 import hudson.model.*;
@@ -39,6 +36,7 @@ import hudson.tasks.Notifier;
 import hudson.tasks.Publisher;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -46,8 +44,16 @@ import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 import org.jenkinsci.plugins.bitbucket.api.BitbucketApi;
 import org.jenkinsci.plugins.bitbucket.api.BitbucketApiService;
+import org.jenkinsci.plugins.bitbucket.api.BitbucketEndpoint;
+import org.jenkinsci.plugins.bitbucket.api.BitbucketTransport;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketCircuitBreaker;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketNotificationDispatcher;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketNotificationSender;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketRateLimiter;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketRetryPolicy;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 import org.scribe.model.*;
@@ -60,6 +66,7 @@ public class BitbucketBuildStatusNotifier extends Notifier {
     private final boolean notifyFinish;
     private final boolean overrideLatestBuild;
     private final String credentialsId;
+    private boolean notifyAllCommits;
 
     @DataBoundConstructor
     public BitbucketBuildStatusNotifier(final boolean notifyStart, final boolean notifyFinish,
@@ -83,6 +90,15 @@ public class BitbucketBuildStatusNotifier extends Notifier {
         return this.overrideLatestBuild;
     }
 
+    public boolean getNotifyAllCommits() {
+        return this.notifyAllCommits;
+    }
+
+    @DataBoundSetter
+    public void setNotifyAllCommits(boolean notifyAllCommits) {
+        this.notifyAllCommits = notifyAllCommits;
+    }
+
     public String getCredentialsId() {
         return this.credentialsId != null ? this.credentialsId : this.getDescriptor().getGlobalCredentialsId();
     }
@@ -106,13 +122,15 @@ public class BitbucketBuildStatusNotifier extends Notifier {
 
 
         try {
-            BitbucketBuildStatusHelper.notifyBuildStatus(this.getCredentials(build), this.getOverrideLatestBuild(), build, listener);
+            // notifications are sent in background, the outcome is reported to the build log when it arrives
+            BitbucketBuildStatusHelper.notifyBuildStatus(this.getCredentials(build), this.getOverrideLatestBuild(), build, listener,
+                    this.getNotifyAllCommits());
         } catch (Exception e) {
             listener.getLogger().println("Bitbucket notify on start failed: " + e.getMessage());
             e.printStackTrace(listener.getLogger());
         }
 
-        logger.info("Bitbucket notify on start succeeded");
+        logger.info("Bitbucket notify on start queued");
 
         return true;
     }
@@ -125,14 +143,15 @@ public class BitbucketBuildStatusNotifier extends Notifier {
         logger.info("Bitbucket notify on finish");
 
         try {
-            BitbucketBuildStatusHelper.notifyBuildStatus(this.getCredentials(build), this.getOverrideLatestBuild(), build, listener);
+            BitbucketBuildStatusHelper.notifyBuildStatus(this.getCredentials(build), this.getOverrideLatestBuild(), build, listener,
+                    this.getNotifyAllCommits());
         } catch (Exception e) {
             logger.log(Level.INFO, "Bitbucket notify on finish failed: " + e.getMessage(), e);
             listener.getLogger().println("Bitbucket notify on finish failed: " + e.getMessage());
             e.printStackTrace(listener.getLogger());
         }
 
-        logger.info("Bitbucket notify on finish succeeded");
+        logger.info("Bitbucket notify on finish queued");
 
         return true;
     }
@@ -158,9 +177,27 @@ public class BitbucketBuildStatusNotifier extends Notifier {
     public static class DescriptorImpl extends BuildStepDescriptor<Publisher> {
 
         private String globalCredentialsId;
+        private int dispatcherThreads = BitbucketNotificationDispatcher.DEFAULT_THREADS;
+        private int dispatcherQueueSize = BitbucketNotificationDispatcher.DEFAULT_QUEUE_SIZE;
+        private int retryMaxAttempts = BitbucketRetryPolicy.DEFAULT_MAX_ATTEMPTS;
+        private int retryBaseDelay = BitbucketRetryPolicy.DEFAULT_BASE_DELAY_SECONDS;
+        private int retryMaxDelay = BitbucketRetryPolicy.DEFAULT_MAX_DELAY_SECONDS;
+        private int rateLimit = BitbucketRateLimiter.DEFAULT_RATE;
+        private int rateLimitBurst = BitbucketRateLimiter.DEFAULT_BURST;
+        private String transport = BitbucketTransport.POOLED;
+        private int connectTimeout = BitbucketTransport.DEFAULT_CONNECT_TIMEOUT_SECONDS;
+        private int readTimeout = BitbucketTransport.DEFAULT_READ_TIMEOUT_SECONDS;
+        private List<BitbucketEndpoint> endpoints = new ArrayList<BitbucketEndpoint>();
+        private int maxChangeSetCommits = BitbucketBuildStatusHelper.DEFAULT_MAX_CHANGESET_COMMITS;
+        private int circuitBreakerThreshold = BitbucketCircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+        private int circuitBreakerCoolDown = BitbucketCircuitBreaker.DEFAULT_COOL_DOWN_SECONDS;
+        private int payloadLogSampling;
+        private int shutdownTimeout = BitbucketNotificationDispatcher.DEFAULT_SHUTDOWN_TIMEOUT_SECONDS;
+        private int reconcileInterval = BitbucketStatusReconciler.DEFAULT_INTERVAL_MINUTES;
 
         public DescriptorImpl() {
             load();
+            this.applyConfiguration();
         }
 
         public String getGlobalCredentialsId() {
@@ -171,6 +208,164 @@ public class BitbucketBuildStatusNotifier extends Notifier {
             this.globalCredentialsId = globalCredentialsId;
         }
 
+        public int getDispatcherThreads() {
+            return dispatcherThreads;
+        }
+
+        public void setDispatcherThreads(int dispatcherThreads) {
+            this.dispatcherThreads = dispatcherThreads;
+        }
+
+        public int getDispatcherQueueSize() {
+            return dispatcherQueueSize;
+        }
+
+        public void setDispatcherQueueSize(int dispatcherQueueSize) {
+            this.dispatcherQueueSize = dispatcherQueueSize;
+        }
+
+        public int getRetryMaxAttempts() {
+            return retryMaxAttempts;
+        }
+
+        public void setRetryMaxAttempts(int retryMaxAttempts) {
+            this.retryMaxAttempts = retryMaxAttempts;
+        }
+
+        public int getRetryBaseDelay() {
+            return retryBaseDelay;
+        }
+
+        public void setRetryBaseDelay(int retryBaseDelay) {
+            this.retryBaseDelay = retryBaseDelay;
+        }
+
+        public int getRetryMaxDelay() {
+            return retryMaxDelay;
+        }
+
+        public void setRetryMaxDelay(int retryMaxDelay) {
+            this.retryMaxDelay = retryMaxDelay;
+        }
+
+        public int getRateLimit() {
+            return rateLimit;
+        }
+
+        public void setRateLimit(int rateLimit) {
+            this.rateLimit = rateLimit;
+        }
+
+        public int getRateLimitBurst() {
+            return rateLimitBurst;
+        }
+
+        public void setRateLimitBurst(int rateLimitBurst) {
+            this.rateLimitBurst = rateLimitBurst;
+        }
+
+        public String getTransport() {
+            return transport;
+        }
+
+        public void setTransport(String transport) {
+            this.transport = transport;
+        }
+
+        public int getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        public void setConnectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+        }
+
+        public int getReadTimeout() {
+            return readTimeout;
+        }
+
+        public void setReadTimeout(int readTimeout) {
+            this.readTimeout = readTimeout;
+        }
+
+        public int getMaxChangeSetCommits() {
+            return maxChangeSetCommits;
+        }
+
+        public void setMaxChangeSetCommits(int maxChangeSetCommits) {
+            this.maxChangeSetCommits = maxChangeSetCommits;
+        }
+
+        public int getCircuitBreakerThreshold() {
+            return circuitBreakerThreshold;
+        }
+
+        public void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+            this.circuitBreakerThreshold = circuitBreakerThreshold;
+        }
+
+        public int getCircuitBreakerCoolDown() {
+            return circuitBreakerCoolDown;
+        }
+
+        public void setCircuitBreakerCoolDown(int circuitBreakerCoolDown) {
+            this.circuitBreakerCoolDown = circuitBreakerCoolDown;
+        }
+
+        public int getPayloadLogSampling() {
+            return payloadLogSampling;
+        }
+
+        public void setPayloadLogSampling(int payloadLogSampling) {
+            this.payloadLogSampling = payloadLogSampling;
+        }
+
+        public int getShutdownTimeout() {
+            return shutdownTimeout;
+        }
+
+        public void setShutdownTimeout(int shutdownTimeout) {
+            this.shutdownTimeout = shutdownTimeout;
+        }
+
+        public int getReconcileInterval() {
+            return reconcileInterval;
+        }
+
+        public void setReconcileInterval(int reconcileInterval) {
+            this.reconcileInterval = reconcileInterval;
+        }
+
+        // shown on the global configuration page
+        public List<BitbucketCircuitBreaker.Circuit> getCircuits() {
+            return BitbucketCircuitBreaker.get().getCircuits();
+        }
+
+        public List<BitbucketEndpoint> getEndpoints() {
+            return endpoints;
+        }
+
+        public void setEndpoints(List<BitbucketEndpoint> endpoints) {
+            this.endpoints = endpoints == null ? new ArrayList<BitbucketEndpoint>() : endpoints;
+        }
+
+        private synchronized void applyConfiguration() {
+            BitbucketNotifierConfiguration configuration = new BitbucketNotifierConfiguration(this);
+            BitbucketNotifierConfiguration.set(configuration);
+
+            BitbucketNotificationDispatcher dispatcher = BitbucketNotificationDispatcher.get();
+            dispatcher.configure(configuration.getDispatcherThreads(), configuration.getDispatcherQueueSize());
+            dispatcher.setRetryPolicy(new BitbucketRetryPolicy(configuration.getRetryMaxAttempts(),
+                    configuration.getRetryBaseDelay(), configuration.getRetryMaxDelay()));
+            BitbucketRateLimiter.get().configure(configuration.getRateLimit(), configuration.getRateLimitBurst());
+            BitbucketTransport.configure(configuration.getTransport(), configuration.getConnectTimeout(),
+                    configuration.getReadTimeout());
+            BitbucketEndpoint.setConfigured(configuration.getEndpoints());
+            BitbucketCircuitBreaker.get().configure(configuration.getCircuitBreakerThreshold(),
+                    configuration.getCircuitBreakerCoolDown());
+            BitbucketNotificationSender.setPayloadLogSampling(configuration.getPayloadLogSampling());
+        }
+
         @Override
         public String getDisplayName() {
             return "Bitbucket notify build status";
@@ -183,8 +378,13 @@ public class BitbucketBuildStatusNotifier extends Notifier {
 
         @Override
         public boolean configure(StaplerRequest req, JSONObject formData) throws FormException {
-            req.bindJSON(this, formData.getJSONObject("bitbucket-build-status-notifier"));
-            save();
+            synchronized (this) {
+                // an empty list is not submitted at all, binding would keep the previous endpoints
+                this.setEndpoints(null);
+                req.bindJSON(this, formData.getJSONObject("bitbucket-build-status-notifier"));
+                save();
+                this.applyConfiguration();
+            }
 
             return true;
         }
@@ -193,11 +393,9 @@ public class BitbucketBuildStatusNotifier extends Notifier {
             if (owner == null || !owner.hasPermission(Item.CONFIGURE)) {
                 return new ListBoxModel();
             }
-            List<DomainRequirement> apiEndpoint = URIRequirementBuilder.fromUri(BitbucketApi.OAUTH_ENDPOINT).build();
-
             return new StandardUsernameListBoxModel()
                     .withEmptySelection()
-                    .withAll(CredentialsProvider.lookupCredentials(StandardUsernamePasswordCredentials.class, owner, null, apiEndpoint));
+                    .withAll(BitbucketCredentialsCache.lookupAllCredentials(owner));
         }
 
         public FormValidation doCheckCredentialsId(@QueryParameter final String credentialsId,
@@ -217,13 +415,19 @@ public class BitbucketBuildStatusNotifier extends Notifier {
             return this.checkCredentials(credentials);
         }
 
+        public ListBoxModel doFillTransportItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add("Pooled keep-alive connections", BitbucketTransport.POOLED);
+            items.add("Scribe (legacy)", BitbucketTransport.SCRIBE);
+
+            return items;
+        }
+
         public ListBoxModel doFillGlobalCredentialsIdItems() {
             Job owner = null;
-            List<DomainRequirement> apiEndpoint = URIRequirementBuilder.fromUri(BitbucketApi.OAUTH_ENDPOINT).build();
-
             return new StandardUsernameListBoxModel()
                     .withEmptySelection()
-                    .withAll(CredentialsProvider.lookupCredentials(StandardUsernamePasswordCredentials.class, owner, null, apiEndpoint));
+                    .withAll(BitbucketCredentialsCache.lookupAllCredentials(owner));
         }
 
         public FormValidation doCheckGlobalCredentialsId(@QueryParameter final String globalCredentialsId) {
@@ -238,17 +442,30 @@ public class BitbucketBuildStatusNotifier extends Notifier {
         }
 
         private FormValidation checkCredentials(UsernamePasswordCredentials credentials) {
+            // only oauth endpoints can be asked whether credentials are valid, data center checks them on each request
+            BitbucketEndpoint oauthEndpoint = null;
+            boolean dataCenter = false;
+            for (BitbucketEndpoint endpoint : BitbucketEndpoint.getAll()) {
+                if (endpoint.isDataCenter()) {
+                    dataCenter = true;
+                } else if (oauthEndpoint == null) {
+                    oauthEndpoint = endpoint;
+                }
+            }
+
             try {
                 OAuthConfig config = new OAuthConfig(credentials.getUsername(), credentials.getPassword().getPlainText());
-                BitbucketApiService apiService = (BitbucketApiService) new BitbucketApi().createService(config);
+                BitbucketApiService apiService = (BitbucketApiService) new BitbucketApi(oauthEndpoint.getOauthUrl()).createService(config);
                 Verifier verifier = null;
                 Token token = apiService.getAccessToken(OAuthConstants.EMPTY_TOKEN, verifier);
 
                 if (token.isEmpty()) {
-                    return FormValidation.error("Invalid Bitbucket OAuth credentials");
+                    return dataCenter ? FormValidation.warning("Not valid Bitbucket OAuth credentials, only usable with Bitbucket Data Center")
+                            : FormValidation.error("Invalid Bitbucket OAuth credentials");
                 }
             } catch (Exception e) {
-                return FormValidation.error(e.getClass() + e.getMessage());
+                return dataCenter ? FormValidation.warning("Not valid Bitbucket OAuth credentials, only usable with Bitbucket Data Center: " + e.getMessage())
+                        : FormValidation.error(e.getClass() + e.getMessage());
             }
 
             return FormValidation.ok();
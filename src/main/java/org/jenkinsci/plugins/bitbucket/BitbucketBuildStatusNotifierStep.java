@@ -28,17 +28,15 @@ import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredenti
 import com.google.inject.Inject;
 
 import hudson.Extension;
-import hudson.XmlFile;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.logging.Logger;
 
 import jenkins.model.Jenkins;
 
 import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketNotificationBatch;
 import org.jenkinsci.plugins.bitbucket.validator.BitbucketHostValidator;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
@@ -92,6 +90,30 @@ public class BitbucketBuildStatusNotifierStep extends AbstractStepImpl {
         this.commitId = commitId;
     }
 
+    private boolean force;
+    public boolean getForce() { return this.force; }
+    @DataBoundSetter public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    private boolean allCommits;
+    public boolean getAllCommits() { return this.allCommits; }
+    @DataBoundSetter public void setAllCommits(boolean allCommits) {
+        this.allCommits = allCommits;
+    }
+
+    private boolean wait = true;
+    public boolean getWait() { return this.wait; }
+    @DataBoundSetter public void setWait(boolean wait) {
+        this.wait = wait;
+    }
+
+    private int failureThreshold = 1;
+    public int getFailureThreshold() { return this.failureThreshold; }
+    @DataBoundSetter public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
     @DataBoundConstructor
     public BitbucketBuildStatusNotifierStep(final String buildState) {
         this.buildState = buildState;
@@ -107,7 +129,7 @@ public class BitbucketBuildStatusNotifierStep extends AbstractStepImpl {
                 .getCredentials(getCredentialsId(), build.getParent());
         if (credentials == null) {
             credentials = BitbucketBuildStatusHelper
-                    .getCredentials(this.getDescriptor().getGlobalCredentialsId(), null);
+                    .getCredentials(BitbucketNotifierConfiguration.get().getGlobalCredentialsId(), null);
         }
         return credentials;
     }
@@ -115,25 +137,14 @@ public class BitbucketBuildStatusNotifierStep extends AbstractStepImpl {
     @Extension
     public static class DescriptorImpl extends AbstractStepDescriptorImpl {
 
-        private String globalCredentialsId;
-
         public String getGlobalCredentialsId() {
-            return globalCredentialsId;
-        }
-
-        public void setGlobalCredentialsId(String globalCredentialsId) {
-            this.globalCredentialsId = globalCredentialsId;
+            return BitbucketNotifierConfiguration.get().getGlobalCredentialsId();
         }
 
         public DescriptorImpl() {
             super(Execution.class);
         }
 
-        @Override
-        protected XmlFile getConfigFile() {
-            return new XmlFile(new File(Jenkins.getInstance().getRootDir(), this.getId().replace("Step", "") + ".xml"));
-        }
-
         @Override
         public String getFunctionName() {
             return "bitbucketStatusNotify";
@@ -157,21 +168,8 @@ public class BitbucketBuildStatusNotifierStep extends AbstractStepImpl {
         @Inject
         private transient BitbucketBuildStatusNotifierStep step;
 
-        private void readGlobalConfiguration() {
-            XmlFile config = step.getDescriptor().getConfigFile();
-            BitbucketBuildStatusNotifier.DescriptorImpl cfg = new BitbucketBuildStatusNotifier.DescriptorImpl();
-            try {
-                config.unmarshal(cfg);
-                step.getDescriptor().setGlobalCredentialsId(cfg.getGlobalCredentialsId());
-            } catch (IOException e) {
-                logger.warning("Unable to read BitbucketBuildStatusNotifier configuration");
-            }
-        }
-
         @Override
         public Void run() throws Exception {
-            this.readGlobalConfiguration();
-
             String buildState = step.getBuildState();
 
             String buildKey = step.getBuildKey();
@@ -184,10 +182,8 @@ public class BitbucketBuildStatusNotifierStep extends AbstractStepImpl {
                 buildName = BitbucketBuildStatusHelper.defaultBitbucketBuildNameFromBuild(build);
             }
 
+            // left null, the test summary is only worked out when a status is actually sent
             String buildDescription = step.getBuildDescription();
-            if (buildDescription == null) {
-                buildDescription = BitbucketBuildStatusHelper.defaultBitbucketBuildDescriptionFromBuild(build);
-            }
 
             String commitId = step.getCommitId();
             String repoSlug = step.getRepoSlug();
@@ -199,7 +195,28 @@ public class BitbucketBuildStatusNotifierStep extends AbstractStepImpl {
             BitbucketBuildStatus buildStatus = new BitbucketBuildStatus(buildState, buildKey, buildUrl, buildName,
                     buildDescription);
 
-            BitbucketBuildStatusHelper.notifyBuildStatus(step.getCredentials(build), false, build, taskListener, buildStatus, repoSlug, commitId);
+            BitbucketNotificationBatch notifications = BitbucketBuildStatusHelper
+                    .notifyBuildStatus(step.getCredentials(build), false, build, taskListener, buildStatus, repoSlug, commitId,
+                            step.getForce(), step.getAllCommits());
+
+            if (!step.getWait()) {
+                // outcomes are reported to the log as they arrive, bitbucketStatusAwait collects them
+                BitbucketBuildStatusAction.getOrCreate(build).addOutstanding(notifications);
+                return null;
+            }
+
+            // the step still fails on errors, it only waits on the dispatcher instead of sending by itself
+            BitbucketNotificationBatch.Summary summary = notifications.await();
+            if (notifications.size() > 1) {
+                taskListener.getLogger().println(summary);
+            }
+            if (summary.getFailed() > 0 && summary.getFailed() >= Math.max(step.getFailureThreshold(), 1)) {
+                Throwable cause = summary.getFailures().get(0).getCause();
+                if (notifications.size() == 1) {
+                    throw cause instanceof Exception ? (Exception) cause : new Exception(cause);
+                }
+                throw new Exception(summary.toString(), cause);
+            }
 
             return null;
         }
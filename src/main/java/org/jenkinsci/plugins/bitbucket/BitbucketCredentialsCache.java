@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.cloudbees.plugins.credentials.domains.URIRequirementBuilder;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Job;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.bitbucket.api.BitbucketEndpoint;
+
+// remembers which credentials an id resolves to for a job, credentials lookups walk every store of every folder
+public class BitbucketCredentialsCache {
+
+    private static final int MAXIMUM_SIZE = 1000;
+    // credentials providers which don't save through jenkins are not noticed when they change
+    private static final long EXPIRE_AFTER_MINUTES = 10;
+
+    private static final BitbucketCredentialsCache INSTANCE = new BitbucketCredentialsCache();
+
+    // absent values remember ids which could not be found
+    private final Cache<String, Optional<StandardUsernamePasswordCredentials>> credentials = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_SIZE)
+            .expireAfterWrite(EXPIRE_AFTER_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    public static BitbucketCredentialsCache get() {
+        return INSTANCE;
+    }
+
+    public StandardUsernamePasswordCredentials getCredentials(String credentialsId, Job<?,?> owner) {
+        if (credentialsId == null) {
+            return null;
+        }
+
+        String cacheKey = (owner == null ? "" : owner.getFullName()) + "\n" + credentialsId;
+        Optional<StandardUsernamePasswordCredentials> cached = this.credentials.getIfPresent(cacheKey);
+        if (cached == null) {
+            cached = Optional.fromNullable(lookupCredentials(credentialsId, owner));
+            this.credentials.put(cacheKey, cached);
+        }
+
+        return cached.orNull();
+    }
+
+    public void invalidateAll() {
+        this.credentials.invalidateAll();
+    }
+
+    static StandardUsernamePasswordCredentials lookupCredentials(String credentialsId, Job<?,?> owner) {
+        for (StandardUsernamePasswordCredentials c : lookupAllCredentials(owner)) {
+            if (c.getId().equals(credentialsId)) {
+                return c;
+            }
+        }
+
+        return null;
+    }
+
+    // credentials usable for any of the endpoints, each endpoint may have its own credentials domain
+    public static List<StandardUsernamePasswordCredentials> lookupAllCredentials(Job<?,?> owner) {
+        Map<String, StandardUsernamePasswordCredentials> all = new LinkedHashMap<String, StandardUsernamePasswordCredentials>();
+        for (BitbucketEndpoint endpoint : BitbucketEndpoint.getAll()) {
+            for (StandardUsernamePasswordCredentials c : CredentialsProvider.lookupCredentials(
+                    StandardUsernamePasswordCredentials.class, owner, null,
+                    URIRequirementBuilder.fromUri(endpoint.getCredentialsUrl()).build())) {
+                if (!all.containsKey(c.getId())) {
+                    all.put(c.getId(), c);
+                }
+            }
+        }
+
+        return new ArrayList<StandardUsernamePasswordCredentials>(all.values());
+    }
+
+    // credential stores save through jenkins when their credentials change, jobs and builds save far too often
+    @Extension
+    public static class SaveListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (holdsCredentials(o, file)) {
+                BitbucketCredentialsCache.get().invalidateAll();
+            }
+        }
+
+        // the global store in credentials.xml, the per user store in the user and the store of a folder,
+        // which is a property saved along with the folder
+        static boolean holdsCredentials(Saveable o, XmlFile file) {
+            return o instanceof SystemCredentialsProvider
+                    || (file != null && "credentials.xml".equals(file.getFile().getName()))
+                    || o instanceof User
+                    || (o instanceof Item && o instanceof ItemGroup && !(o instanceof Job));
+        }
+    }
+
+    // cached entries are keyed by the full name of the job, which changes when it or a parent folder is moved
+    @Extension
+    public static class ItemChangeListener extends ItemListener {
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            BitbucketCredentialsCache.get().invalidateAll();
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            BitbucketCredentialsCache.get().invalidateAll();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket;
+
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.Job;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketNotification;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketNotificationDispatcher;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketNotificationJournal;
+
+public class BitbucketNotificationLifecycle {
+    private static final Logger logger = Logger.getLogger(BitbucketNotificationLifecycle.class.getName());
+
+    private static final String JOURNAL_FILE = "bitbucket-build-status-notifier/outbox.journal";
+    // bounds the shutdown once the queue is drained, for the last records to reach the disk
+    private static final long JOURNAL_CLOSE_TIMEOUT_SECONDS = 5;
+
+    private static volatile BitbucketNotificationJournal openJournal;
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void replayPendingNotifications() {
+        Jenkins jenkins = Jenkins.getInstance();
+        BitbucketNotificationJournal journal;
+        try {
+            journal = BitbucketNotificationJournal.open(new File(jenkins.getRootDir(), JOURNAL_FILE));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Bitbucket notification journal could not be opened, " +
+                    "pending notifications will not survive a restart", e);
+            return;
+        }
+
+        BitbucketNotificationDispatcher dispatcher = BitbucketNotificationDispatcher.get();
+        dispatcher.setJournal(journal);
+        openJournal = journal;
+
+        List<BitbucketNotificationJournal.Entry> entries = journal.getRecoveredEntries();
+        if (!entries.isEmpty()) {
+            logger.info("Sending " + entries.size() + " Bitbucket notifications pending since the last shutdown");
+        }
+        for (BitbucketNotificationJournal.Entry entry : entries) {
+            BitbucketNotification notification = new BitbucketNotification(
+                    getCredentials(entry.getCredentialsId(), entry.getJobName()),
+                    entry.getBuildStatusResource(), entry.getBuildStatus(), null, entry.getJobName());
+            dispatcher.resubmit(notification, entry.getId());
+        }
+    }
+
+    @Terminator
+    public static void drainPendingNotifications() throws InterruptedException {
+        int timeout = BitbucketNotifierConfiguration.get().getShutdownTimeout();
+        if (timeout <= 0) {
+            timeout = BitbucketNotificationDispatcher.DEFAULT_SHUTDOWN_TIMEOUT_SECONDS;
+        }
+
+        long started = System.currentTimeMillis();
+        List<String> undelivered = BitbucketNotificationDispatcher.get().shutdown(timeout, TimeUnit.SECONDS);
+        BitbucketNotificationJournal journal = openJournal;
+        if (undelivered.isEmpty()) {
+            logger.info("Bitbucket notifications drained in " + (System.currentTimeMillis() - started) + " ms");
+        } else {
+            StringBuilder message = new StringBuilder();
+            message.append(undelivered.size()).append(" Bitbucket notifications could not be sent within ")
+                    .append(timeout).append(" seconds")
+                    .append(journal != null ? ", they will be sent after the restart:" : " and are lost:");
+            for (String notification : undelivered) {
+                message.append("\n    ").append(notification);
+            }
+            logger.warning(message.toString());
+        }
+
+        if (journal != null) {
+            journal.close(JOURNAL_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private static StandardUsernamePasswordCredentials getCredentials(String credentialsId, String jobName) {
+        Job<?, ?> job = jobName != null ? Jenkins.getInstance().getItemByFullName(jobName, Job.class) : null;
+        StandardUsernamePasswordCredentials credentials = BitbucketBuildStatusHelper.getCredentials(credentialsId, job);
+        if (credentials == null) {
+            credentials = BitbucketBuildStatusHelper.getCredentials(
+                    BitbucketNotifierConfiguration.get().getGlobalCredentialsId(), null);
+        }
+
+        return credentials;
+    }
+}
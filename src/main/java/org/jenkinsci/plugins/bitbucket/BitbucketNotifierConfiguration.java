@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.bitbucket.api.BitbucketEndpoint;
+
+// immutable copy of the global configuration, replaced as a whole whenever it is saved
+public class BitbucketNotifierConfiguration {
+
+    private static volatile BitbucketNotifierConfiguration current;
+
+    private final String globalCredentialsId;
+    private final int dispatcherThreads;
+    private final int dispatcherQueueSize;
+    private final int retryMaxAttempts;
+    private final int retryBaseDelay;
+    private final int retryMaxDelay;
+    private final int rateLimit;
+    private final int rateLimitBurst;
+    private final String transport;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final List<BitbucketEndpoint> endpoints;
+    private final int maxChangeSetCommits;
+    private final int circuitBreakerThreshold;
+    private final int circuitBreakerCoolDown;
+    private final int payloadLogSampling;
+    private final int shutdownTimeout;
+    private final int reconcileInterval;
+
+    BitbucketNotifierConfiguration(BitbucketBuildStatusNotifier.DescriptorImpl descriptor) {
+        this.globalCredentialsId = descriptor.getGlobalCredentialsId();
+        this.dispatcherThreads = descriptor.getDispatcherThreads();
+        this.dispatcherQueueSize = descriptor.getDispatcherQueueSize();
+        this.retryMaxAttempts = descriptor.getRetryMaxAttempts();
+        this.retryBaseDelay = descriptor.getRetryBaseDelay();
+        this.retryMaxDelay = descriptor.getRetryMaxDelay();
+        this.rateLimit = descriptor.getRateLimit();
+        this.rateLimitBurst = descriptor.getRateLimitBurst();
+        this.transport = descriptor.getTransport();
+        this.connectTimeout = descriptor.getConnectTimeout();
+        this.readTimeout = descriptor.getReadTimeout();
+        this.maxChangeSetCommits = descriptor.getMaxChangeSetCommits();
+        this.circuitBreakerThreshold = descriptor.getCircuitBreakerThreshold();
+        this.circuitBreakerCoolDown = descriptor.getCircuitBreakerCoolDown();
+        this.payloadLogSampling = descriptor.getPayloadLogSampling();
+        this.shutdownTimeout = descriptor.getShutdownTimeout();
+        this.reconcileInterval = descriptor.getReconcileInterval();
+        this.endpoints = descriptor.getEndpoints() == null ? Collections.<BitbucketEndpoint>emptyList()
+                : Collections.unmodifiableList(new ArrayList<BitbucketEndpoint>(descriptor.getEndpoints()));
+    }
+
+    public static BitbucketNotifierConfiguration get() {
+        BitbucketNotifierConfiguration configuration = current;
+        if (configuration == null) {
+            // the descriptor publishes the configuration once it is loaded
+            Jenkins.getInstance().getDescriptorByType(BitbucketBuildStatusNotifier.DescriptorImpl.class);
+            configuration = current;
+        }
+
+        return configuration;
+    }
+
+    static void set(BitbucketNotifierConfiguration configuration) {
+        current = configuration;
+    }
+
+    public String getGlobalCredentialsId() {
+        return this.globalCredentialsId;
+    }
+
+    public int getDispatcherThreads() {
+        return this.dispatcherThreads;
+    }
+
+    public int getDispatcherQueueSize() {
+        return this.dispatcherQueueSize;
+    }
+
+    public int getRetryMaxAttempts() {
+        return this.retryMaxAttempts;
+    }
+
+    public int getRetryBaseDelay() {
+        return this.retryBaseDelay;
+    }
+
+    public int getRetryMaxDelay() {
+        return this.retryMaxDelay;
+    }
+
+    public int getRateLimit() {
+        return this.rateLimit;
+    }
+
+    public int getRateLimitBurst() {
+        return this.rateLimitBurst;
+    }
+
+    public String getTransport() {
+        return this.transport;
+    }
+
+    public int getConnectTimeout() {
+        return this.connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return this.readTimeout;
+    }
+
+    public int getMaxChangeSetCommits() {
+        return this.maxChangeSetCommits;
+    }
+
+    public int getCircuitBreakerThreshold() {
+        return this.circuitBreakerThreshold;
+    }
+
+    public int getCircuitBreakerCoolDown() {
+        return this.circuitBreakerCoolDown;
+    }
+
+    public int getPayloadLogSampling() {
+        return this.payloadLogSampling;
+    }
+
+    public int getShutdownTimeout() {
+        return this.shutdownTimeout;
+    }
+
+    public int getReconcileInterval() {
+        return this.reconcileInterval;
+    }
+
+    public List<BitbucketEndpoint> getEndpoints() {
+        return this.endpoints;
+    }
+}
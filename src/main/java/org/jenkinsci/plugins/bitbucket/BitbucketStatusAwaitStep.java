@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket;
+
+import com.google.inject.Inject;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+import java.util.List;
+
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketNotificationBatch;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousNonBlockingStepExecution;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+// waits for the notifications bitbucketStatusNotify sent with wait: false in this run
+public class BitbucketStatusAwaitStep extends AbstractStepImpl {
+
+    private int failureThreshold = 1;
+    public int getFailureThreshold() { return this.failureThreshold; }
+    @DataBoundSetter public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    @DataBoundConstructor
+    public BitbucketStatusAwaitStep() {
+    }
+
+    @Extension
+    public static class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "bitbucketStatusAwait";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Wait for the build statuses notified to BitBucket.";
+        }
+    }
+
+    public static class Execution extends AbstractSynchronousNonBlockingStepExecution<Void> {
+        private static final long serialVersionUID = 1L;
+
+        @StepContextParameter
+        private transient Run<?, ?> build;
+
+        @StepContextParameter
+        private transient TaskListener taskListener;
+
+        @Inject
+        private transient BitbucketStatusAwaitStep step;
+
+        @Override
+        public Void run() throws Exception {
+            BitbucketBuildStatusAction action = build.getAction(BitbucketBuildStatusAction.class);
+            if (action == null) {
+                return null;
+            }
+
+            List<BitbucketNotificationBatch> outstanding = action.takeOutstanding();
+            int failed = 0;
+            Throwable cause = null;
+            for (BitbucketNotificationBatch notifications : outstanding) {
+                if (notifications.size() == 0) {
+                    continue;
+                }
+                BitbucketNotificationBatch.Summary summary = notifications.await();
+                taskListener.getLogger().println(summary);
+                if (cause == null && summary.getFailed() > 0) {
+                    cause = summary.getFailures().get(0).getCause();
+                }
+                failed += summary.getFailed();
+            }
+
+            if (failed > 0 && failed >= Math.max(step.getFailureThreshold(), 1)) {
+                throw new Exception(failed + " BitBucket build status notifications failed", cause);
+            }
+
+            return null;
+        }
+    }
+}
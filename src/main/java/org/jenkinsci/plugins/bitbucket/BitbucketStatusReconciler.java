@@ -0,0 +1,298 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket;
+
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketCircuitBreaker;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketNotification;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketNotificationDispatcher;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketNotificationResult;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketNotificationSender;
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketRateLimiter;
+
+// compares the statuses of recently completed builds with the ones bitbucket shows and repairs the differences,
+// a status may have been lost with a controller, given up on after the retries or edited by hand
+@Extension
+public class BitbucketStatusReconciler extends AsyncPeriodicWork {
+    private static final Logger logger = Logger.getLogger(BitbucketStatusReconciler.class.getName());
+
+    public static final int DEFAULT_INTERVAL_MINUTES = 15;
+
+    private static final String STATE_FILE = "bitbucket-build-status-notifier/reconciler.xml";
+    // the notifications of a build which just completed may still be on their way
+    private static final long SETTLE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    // how far back a job is looked at the first time it is swept
+    private static final long LOOKBACK_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int MAX_BUILDS_PER_JOB = 50;
+    private static final int MAX_PAGES = 10;
+    // share of the rate limit left to live notifications, the sweep stops below it
+    private static final double RESERVED_BUDGET = 0.5;
+
+    private volatile long lastSweep;
+
+    public BitbucketStatusReconciler() {
+        super("Bitbucket build status reconciler");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        // the configured interval is checked on every tick, so a change applies without a restart
+        return MIN;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        int interval = BitbucketNotifierConfiguration.get().getReconcileInterval();
+        long now = System.currentTimeMillis();
+        if (interval <= 0 || now - this.lastSweep < TimeUnit.MINUTES.toMillis(interval)) {
+            return;
+        }
+        this.lastSweep = now;
+
+        XmlFile stateFile = new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.getInstance().getRootDir(), STATE_FILE));
+        HighWaterMarks marks = stateFile.exists() ? (HighWaterMarks) stateFile.read() : new HighWaterMarks();
+
+        Sweep sweep = new Sweep(now);
+        Map<String, Integer> swept = new HashMap<String, Integer>();
+        for (Job<?, ?> job : Jenkins.getInstance().getAllItems(Job.class)) {
+            Integer mark = sweep.sweep(job, marks.get(job.getFullName()));
+            if (mark == null) {
+                // nothing reconciled this time, the job keeps its progress
+                mark = marks.get(job.getFullName());
+            }
+            if (mark != null) {
+                swept.put(job.getFullName(), mark);
+            }
+        }
+
+        // only the marks of jobs which no longer exist are dropped
+        marks.buildNumbers = swept;
+        stateFile.write(marks);
+
+        // the repairs go through the dispatcher and complete later, each one logs its own outcome
+        listener.getLogger().println("Checked " + sweep.checked + " Bitbucket build statuses, submitted " +
+                sweep.submitted + " repairs" + (sweep.deferred > 0 ? ", " + sweep.deferred + " left for the next sweep" : ""));
+    }
+
+    // the status a run should show for one that was sent for it
+    static BitbucketBuildStatus expectedStatus(BitbucketBuildStatusAction.SentStatus sentStatus, boolean building,
+                                               Result result) {
+        BitbucketBuildStatus sent = sentStatus.getBuildStatus();
+        if (sentStatus.isRunKey() && BitbucketBuildStatus.INPROGRESS.equals(sent.getState()) && !building) {
+            // the final status of the run never made it, stage keys keep the state they were given
+            return new BitbucketBuildStatus(BitbucketBuildStatusHelper.guessBitbucketBuildState(result),
+                    sent.getKey(), sent.getUrl(), sent.getName(), sent.getDescription());
+        }
+
+        return sent;
+    }
+
+    // only the state and the link to the build are compared, name and description are informational
+    static boolean needsRepair(BitbucketBuildStatus expected, BitbucketBuildStatus shown) {
+        return shown == null || !shown.getState().equals(expected.getState()) || !shown.getUrl().equals(expected.getUrl());
+    }
+
+    private static class Sweep {
+        private final long now;
+        private int checked;
+        private int submitted;
+        private int deferred;
+
+        Sweep(long now) {
+            this.now = now;
+        }
+
+        // returns the new high-water mark of the job: every build up to it was reconciled
+        Integer sweep(Job<?, ?> job, Integer mark) {
+            // newest first: a commit notified by several builds only has to show the status of the newest one
+            Map<Run<?, ?>, List<BitbucketNotification>> builds = new LinkedHashMap<Run<?, ?>, List<BitbucketNotification>>();
+            Set<String> claimed = new HashSet<String>();
+            int count = 0;
+            for (Run<?, ?> run = job.getLastBuild(); run != null && count < MAX_BUILDS_PER_JOB;
+                 run = run.getPreviousBuild(), count++) {
+                if (mark != null && run.getNumber() <= mark) {
+                    break;
+                }
+                if (mark == null && !run.isBuilding() && run.getTimeInMillis() + run.getDuration() < this.now - LOOKBACK_MILLIS) {
+                    // older builds are out of scope for good, the next sweeps stop here right away
+                    mark = run.getNumber();
+                    break;
+                }
+                builds.put(run, this.notifications(job, run, claimed));
+            }
+
+            List<Run<?, ?>> oldestFirst = new ArrayList<Run<?, ?>>(builds.keySet());
+            Collections.reverse(oldestFirst);
+            for (Run<?, ?> run : oldestFirst) {
+                if (run.isBuilding() || run.getTimeInMillis() + run.getDuration() > this.now - SETTLE_MILLIS) {
+                    break;
+                }
+                if (!this.reconcile(builds.get(run))) {
+                    break;
+                }
+                mark = run.getNumber();
+            }
+
+            return mark;
+        }
+
+        // the statuses the run is expected to show, except those a newer build of the job sends as well
+        private List<BitbucketNotification> notifications(Job<?, ?> job, Run<?, ?> run, Set<String> claimed) {
+            List<BitbucketNotification> notifications = new ArrayList<BitbucketNotification>();
+            BitbucketBuildStatusAction action = run.getAction(BitbucketBuildStatusAction.class);
+            if (action == null) {
+                return notifications;
+            }
+
+            // exactly the resources and keys the statuses were sent to, steps may have given their own
+            for (BitbucketBuildStatusAction.SentStatus sentStatus : action.getSentStatuses()) {
+                BitbucketBuildStatus expected = expectedStatus(sentStatus, run.isBuilding(), run.getResult());
+                StandardUsernamePasswordCredentials credentials = BitbucketBuildStatusHelper.getCredentials(
+                        sentStatus.getCredentialsId(), job);
+                BitbucketNotification notification = new BitbucketNotification(credentials,
+                        sentStatus.getBuildStatusResource(), expected, null, job.getFullName(), true);
+                if (claimed.add(notification.getStatusKey()) && credentials != null && expected.getState() != null) {
+                    notifications.add(notification);
+                }
+            }
+
+            return notifications;
+        }
+
+        // returns false when the run has to be checked again in the next sweep
+        private boolean reconcile(List<BitbucketNotification> notifications) {
+            for (BitbucketNotification notification : notifications) {
+                BitbucketBuildStatus expected = notification.getBuildStatus();
+                BitbucketBuildStatus shown;
+                try {
+                    shown = this.fetch(notification);
+                } catch (BudgetExhausted e) {
+                    this.deferred++;
+                    return false;
+                } catch (Exception e) {
+                    logger.log(Level.FINE, "Could not read the Bitbucket build statuses of " + notification.getStatusKey(), e);
+                    if (BitbucketCircuitBreaker.isHostFailure(e)) {
+                        this.deferred++;
+                        return false;
+                    }
+                    // the repository is gone or the credentials may not read it, there is nothing to repair
+                    continue;
+                }
+
+                this.checked++;
+                if (needsRepair(expected, shown)) {
+                    logger.info("Bitbucket shows " + (shown == null ? "no status" : shown.getState() + " of " + shown.getUrl()) +
+                            " for " + notification.getStatusKey() + ", sending " + expected.getState() + " of " +
+                            expected.getUrl() + " again");
+                    this.repair(notification);
+                    this.submitted++;
+                }
+            }
+
+            return true;
+        }
+
+        private void repair(final BitbucketNotification notification) {
+            Futures.addCallback(BitbucketNotificationDispatcher.get().submit(notification),
+                    new FutureCallback<BitbucketNotificationResult>() {
+                        public void onSuccess(BitbucketNotificationResult result) {
+                            logger.info("Repaired the Bitbucket build status " + notification.getStatusKey());
+                        }
+
+                        public void onFailure(Throwable t) {
+                            logger.log(Level.WARNING, "Could not repair the Bitbucket build status " +
+                                    notification.getStatusKey() + ": " + t.getMessage());
+                        }
+                    });
+        }
+
+        private BitbucketBuildStatus fetch(BitbucketNotification notification) throws Exception {
+            BitbucketRateLimiter rateLimiter = BitbucketRateLimiter.get();
+            String credentialsId = notification.getCredentialsId();
+            String owner = notification.getBuildStatusResource().getOwner();
+            if (!BitbucketCircuitBreaker.get().isClosed(BitbucketCircuitBreaker.key(notification))) {
+                throw new BudgetExhausted();
+            }
+
+            String pageUrl = null;
+            for (int page = 0; page < MAX_PAGES; page++) {
+                if (rateLimiter.getAvailableFraction(credentialsId, owner) < RESERVED_BUDGET
+                        || !rateLimiter.tryAcquire(credentialsId, owner)) {
+                    throw new BudgetExhausted();
+                }
+                BitbucketNotificationSender.StatusPage statuses = BitbucketNotificationSender.fetchStatuses(
+                        notification.getCredentials(), credentialsId, notification.getBuildStatusResource(), pageUrl);
+                BitbucketBuildStatus shown = statuses.find(notification.getBuildStatus().getKey());
+                if (shown != null || statuses.getNext() == null) {
+                    return shown;
+                }
+                pageUrl = statuses.getNext();
+            }
+
+            // too many statuses on the commit to find ours, leave it alone rather than send it blindly
+            logger.fine("Gave up looking for " + notification.getStatusKey() + " after " + MAX_PAGES + " pages");
+            throw new Exception("Too many Bitbucket build statuses on the commit");
+        }
+    }
+
+    private static class BudgetExhausted extends Exception {
+    }
+
+    // the number of the newest build reconciled per job, so each sweep only looks at builds completed since
+    private static class HighWaterMarks {
+        private Map<String, Integer> buildNumbers = new HashMap<String, Integer>();
+
+        Integer get(String jobName) {
+            return this.buildNumbers == null ? null : this.buildNumbers.get(jobName);
+        }
+    }
+}
@@ -35,14 +35,24 @@ public class BitbucketApi extends DefaultApi20 {
 
     public static final String OAUTH_ENDPOINT = "https://bitbucket.org/site/oauth2/";
 
+    private final String oauthEndpoint;
+
+    public BitbucketApi() {
+        this(OAUTH_ENDPOINT);
+    }
+
+    public BitbucketApi(String oauthEndpoint) {
+        this.oauthEndpoint = oauthEndpoint;
+    }
+
     @Override
     public String getAccessTokenEndpoint() {
-        return OAUTH_ENDPOINT + "access_token";
+        return this.oauthEndpoint + "access_token";
     }
 
     @Override
     public String getAuthorizationUrl(OAuthConfig config) {
-        return OAUTH_ENDPOINT + "authorize";
+        return this.oauthEndpoint + "authorize";
     }
 
     @Override
@@ -24,8 +24,11 @@
 
 package org.jenkinsci.plugins.bitbucket.api;
 
+import java.io.IOException;
+
 import org.eclipse.jgit.util.Base64;
 import org.scribe.builder.api.DefaultApi20;
+import org.scribe.exceptions.OAuthConnectionException;
 import org.scribe.model.*;
 import org.scribe.oauth.OAuth20ServiceImpl;
 
@@ -45,10 +48,21 @@ public class BitbucketApiService extends OAuth20ServiceImpl {
 
     @Override
     public Token getAccessToken(Token requestToken, Verifier verifier) {
-        OAuthRequest request = new OAuthRequest(api.getAccessTokenVerb(), api.getAccessTokenEndpoint());
+        BitbucketHttpRequest request = new BitbucketHttpRequest(api.getAccessTokenVerb().name(), api.getAccessTokenEndpoint());
         request.addHeader(OAuthConstants.HEADER, this.getHttpBasicAuthHeaderValue());
-        request.addBodyParameter(GRANT_TYPE_KEY, GRANT_TYPE_CLIENT_CREDENTIALS);
-        Response response = request.send();
+        request.addHeader("Content-Type", "application/x-www-form-urlencoded");
+        request.setBody((GRANT_TYPE_KEY + "=" + GRANT_TYPE_CLIENT_CREDENTIALS).getBytes());
+
+        BitbucketHttpResponse response;
+        try {
+            response = BitbucketTransport.get().execute(request);
+        } catch (IOException e) {
+            throw new OAuthConnectionException(e);
+        }
+        if (response.getCode() == 429 || response.getCode() >= 500) {
+            // not a problem of the credentials, let the caller retry
+            throw new OAuthConnectionException(new IOException("Bitbucket token endpoint responded with HTTP " + response.getCode()));
+        }
 
         return api.getAccessTokenExtractor().extract(response.getBody());
     }
@@ -58,6 +72,15 @@ public class BitbucketApiService extends OAuth20ServiceImpl {
         request.addHeader(OAuthConstants.HEADER, this.getBearerAuthHeaderValue(accessToken));
     }
 
+    public void signRequest(Token accessToken, BitbucketHttpRequest request) {
+        request.addHeader(OAuthConstants.HEADER, this.getBearerAuthHeaderValue(accessToken));
+    }
+
+    // bitbucket data center takes the username and password or access token with every request
+    public void signRequestBasic(BitbucketHttpRequest request) {
+        request.addHeader(OAuthConstants.HEADER, this.getHttpBasicAuthHeaderValue());
+    }
+
     private String getHttpBasicAuthHeaderValue() {
         String authStr = config.getApiKey() + ":" + config.getApiSecret();
 
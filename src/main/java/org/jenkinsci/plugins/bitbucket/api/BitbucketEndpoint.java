@@ -0,0 +1,228 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.api;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusResource;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+// a bitbucket instance notifications are sent to, chosen by the host the repository was cloned from
+public class BitbucketEndpoint extends AbstractDescribableImpl<BitbucketEndpoint> {
+
+    public static final String TYPE_CLOUD = "cloud";
+    public static final String TYPE_DATA_CENTER = "datacenter";
+
+    public static final BitbucketEndpoint CLOUD = new BitbucketEndpoint(TYPE_CLOUD, "bitbucket.org altssh.bitbucket.org",
+            "https://api.bitbucket.org/2.0/", BitbucketApi.OAUTH_ENDPOINT);
+
+    // configured endpoints come first, so bitbucket.org itself can be routed through a proxy
+    private static volatile List<BitbucketEndpoint> configured = Collections.emptyList();
+
+    private final String type;
+    private final String hosts;
+    private final String apiUrl;
+    private final String oauthUrl;
+    private transient List<String> hostList;
+
+    @DataBoundConstructor
+    public BitbucketEndpoint(String type, String hosts, String apiUrl, String oauthUrl) {
+        this.type = TYPE_DATA_CENTER.equals(type) ? TYPE_DATA_CENTER : TYPE_CLOUD;
+        this.hosts = hosts;
+        this.apiUrl = withTrailingSlash(apiUrl);
+        this.oauthUrl = oauthUrl == null || oauthUrl.trim().isEmpty() ? BitbucketApi.OAUTH_ENDPOINT : withTrailingSlash(oauthUrl);
+    }
+
+    public static void setConfigured(List<BitbucketEndpoint> endpoints) {
+        configured = endpoints == null ? Collections.<BitbucketEndpoint>emptyList()
+                : Collections.unmodifiableList(new ArrayList<BitbucketEndpoint>(endpoints));
+    }
+
+    public static List<BitbucketEndpoint> getAll() {
+        List<BitbucketEndpoint> endpoints = new ArrayList<BitbucketEndpoint>(configured);
+        endpoints.add(CLOUD);
+
+        return endpoints;
+    }
+
+    // returns null when notifications for repositories of that host cannot be sent anywhere
+    public static BitbucketEndpoint forHost(String host) {
+        if (host == null) {
+            return null;
+        }
+        for (BitbucketEndpoint endpoint : configured) {
+            if (endpoint.matches(host)) {
+                return endpoint;
+            }
+        }
+
+        return CLOUD.matches(host) ? CLOUD : null;
+    }
+
+    // resources recorded before endpoints were configurable carry no host, they were all meant for bitbucket.org
+    public static BitbucketEndpoint forResource(BitbucketBuildStatusResource resource) throws Exception {
+        if (resource.getHost() == null) {
+            return CLOUD;
+        }
+        BitbucketEndpoint endpoint = forHost(resource.getHost());
+        if (endpoint == null) {
+            throw new Exception("No Bitbucket endpoint is configured for " + resource.getHost());
+        }
+
+        return endpoint;
+    }
+
+    public String getType() {
+        return this.type;
+    }
+
+    public String getHosts() {
+        return this.hosts;
+    }
+
+    public String getApiUrl() {
+        return this.apiUrl;
+    }
+
+    public String getOauthUrl() {
+        return this.oauthUrl;
+    }
+
+    public boolean isDataCenter() {
+        return TYPE_DATA_CENTER.equals(this.type);
+    }
+
+    public List<String> getHostList() {
+        if (this.hostList == null) {
+            List<String> hostList = new ArrayList<String>();
+            if (this.hosts != null) {
+                for (String host : this.hosts.split("[\\s,]+")) {
+                    if (!host.isEmpty()) {
+                        hostList.add(host.toLowerCase(Locale.ENGLISH));
+                    }
+                }
+            }
+            this.hostList = Collections.unmodifiableList(hostList);
+        }
+
+        return this.hostList;
+    }
+
+    public boolean matches(String host) {
+        return this.getHostList().contains(host.toLowerCase(Locale.ENGLISH));
+    }
+
+    // the url credentials for this endpoint are looked up for, so they can be restricted to a credentials domain
+    public String getCredentialsUrl() {
+        return this.isDataCenter() ? this.apiUrl : this.oauthUrl;
+    }
+
+    public String getBuildStatusUrl(BitbucketBuildStatusResource resource) {
+        if (this.isDataCenter()) {
+            // data center keeps build statuses per commit, independent of the repository
+            return this.apiUrl + "rest/build-status/1.0/commits/" + resource.getCommitId();
+        }
+
+        return this.apiUrl + "repositories/" + resource.getOwner() + "/" + resource.getRepoSlug() + "/commit/" +
+                resource.getCommitId() + "/statuses/build";
+    }
+
+    // lists the statuses of every key for the commit, page by page
+    public String getStatusesUrl(BitbucketBuildStatusResource resource) {
+        if (this.isDataCenter()) {
+            return this.apiUrl + "rest/build-status/1.0/commits/" + resource.getCommitId();
+        }
+
+        return this.apiUrl + "repositories/" + resource.getOwner() + "/" + resource.getRepoSlug() + "/commit/" +
+                resource.getCommitId() + "/statuses";
+    }
+
+    private static String withTrailingSlash(String url) {
+        if (url == null) {
+            return null;
+        }
+        url = url.trim();
+
+        return url.endsWith("/") ? url : url + "/";
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<BitbucketEndpoint> {
+
+        @Override
+        public String getDisplayName() {
+            return "Bitbucket endpoint";
+        }
+
+        public ListBoxModel doFillTypeItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add("Bitbucket Cloud API", TYPE_CLOUD);
+            items.add("Bitbucket Data Center / Server", TYPE_DATA_CENTER);
+
+            return items;
+        }
+
+        public FormValidation doCheckHosts(@QueryParameter String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return FormValidation.error("Please enter the hosts repositories of this endpoint are cloned from");
+            }
+
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckApiUrl(@QueryParameter String value) {
+            return checkUrl(value, false);
+        }
+
+        public FormValidation doCheckOauthUrl(@QueryParameter String value) {
+            return checkUrl(value, true);
+        }
+
+        private static FormValidation checkUrl(String value, boolean optional) {
+            if (value == null || value.trim().isEmpty()) {
+                return optional ? FormValidation.ok() : FormValidation.error("Please enter a URL");
+            }
+            try {
+                new URL(value.trim());
+            } catch (MalformedURLException e) {
+                return FormValidation.error("Not a valid URL: " + e.getMessage());
+            }
+
+            return FormValidation.ok();
+        }
+    }
+}
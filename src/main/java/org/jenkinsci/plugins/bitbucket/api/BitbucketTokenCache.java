@@ -0,0 +1,267 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.api;
+
+import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jenkinsci.plugins.bitbucket.metrics.BitbucketNotificationMetrics;
+import org.scribe.model.OAuthConfig;
+import org.scribe.model.OAuthConstants;
+import org.scribe.model.Token;
+
+public class BitbucketTokenCache {
+    private static final Logger logger = Logger.getLogger(BitbucketTokenCache.class.getName());
+
+    // bitbucket access tokens are valid for one hour, used when the response carries no expires_in
+    private static final long DEFAULT_EXPIRES_IN_SECONDS = 3600;
+    // refresh tokens in background this long before they expire
+    private static final long REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    // never hand out a token which is about to expire while the request is in flight
+    private static final long EXPIRY_SKEW_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    // tokens not used for this long are dropped instead of being refreshed
+    private static final long IDLE_MILLIS = TimeUnit.HOURS.toMillis(2);
+    // first delay before a failed refresh is tried again, it doubles with every failure until the token expires
+    private static final long REFRESH_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(15);
+    private static final int REFRESH_THREADS = 2;
+
+    private static final BitbucketTokenCache INSTANCE = new BitbucketTokenCache();
+
+    private final ConcurrentMap<String, CachedToken> tokens = new ConcurrentHashMap<String, CachedToken>();
+    private final ConcurrentMap<String, FutureTask<CachedToken>> inFlight = new ConcurrentHashMap<String, FutureTask<CachedToken>>();
+    // derived once per credentials instance, updating a credential in jenkins replaces the instance
+    private final Cache<UsernamePasswordCredentials, OAuthConfig> configs = CacheBuilder.newBuilder().weakKeys().build();
+    private final Cache<OAuthConfig, String> fingerprints = CacheBuilder.newBuilder().weakKeys().build();
+    // refreshes block on the oauth endpoint, they get their own threads instead of the shared jenkins timer
+    private final ScheduledThreadPoolExecutor refresher = createRefresher();
+
+    private static ScheduledThreadPoolExecutor createRefresher() {
+        ScheduledThreadPoolExecutor refresher = new ScheduledThreadPoolExecutor(REFRESH_THREADS,
+                new NamingThreadFactory(new DaemonThreadFactory(), "Bitbucket access token refresh"));
+        refresher.setKeepAliveTime(60L, TimeUnit.SECONDS);
+        refresher.allowCoreThreadTimeOut(true);
+
+        return refresher;
+    }
+
+    public static BitbucketTokenCache get() {
+        return INSTANCE;
+    }
+
+    // the secret is only decrypted the first time a credential is used
+    public OAuthConfig getConfig(UsernamePasswordCredentials credentials) {
+        OAuthConfig config = this.configs.getIfPresent(credentials);
+        if (config == null) {
+            config = new OAuthConfig(credentials.getUsername(), credentials.getPassword().getPlainText());
+            this.configs.put(credentials, config);
+        }
+
+        return config;
+    }
+
+    public Token getAccessToken(String credentialsId, OAuthConfig config) throws Exception {
+        return getAccessToken(credentialsId, config, BitbucketApi.OAUTH_ENDPOINT);
+    }
+
+    public Token getAccessToken(String credentialsId, OAuthConfig config, String oauthEndpoint) throws Exception {
+        String cacheKey = cacheKey(credentialsId, config, oauthEndpoint);
+        CachedToken cached = tokens.get(cacheKey);
+        if (cached != null && !cached.isExpired(System.currentTimeMillis())) {
+            cached.touch();
+            return cached.token;
+        }
+
+        CachedToken fetched = fetch(cacheKey, config, oauthEndpoint, System.currentTimeMillis());
+        // the caller may have joined a background refresh, which keeps the last access of the token it replaces
+        fetched.touch();
+        return fetched.token;
+    }
+
+    public void invalidate(String credentialsId, OAuthConfig config) {
+        invalidate(credentialsId, config, BitbucketApi.OAUTH_ENDPOINT);
+    }
+
+    public void invalidate(String credentialsId, OAuthConfig config, String oauthEndpoint) {
+        tokens.remove(cacheKey(credentialsId, config, oauthEndpoint));
+    }
+
+    // drops the token only if it is still the rejected one, a token fetched meanwhile by another request stays
+    public void invalidate(String credentialsId, OAuthConfig config, String oauthEndpoint, Token rejected) {
+        String cacheKey = cacheKey(credentialsId, config, oauthEndpoint);
+        CachedToken cached = tokens.get(cacheKey);
+        if (cached != null && cached.token.getToken().equals(rejected.getToken())) {
+            tokens.remove(cacheKey, cached);
+        }
+    }
+
+    private CachedToken fetch(final String cacheKey, final OAuthConfig config, final String oauthEndpoint,
+                              final long lastAccess) throws Exception {
+        FutureTask<CachedToken> task = new FutureTask<CachedToken>(new Callable<CachedToken>() {
+            public CachedToken call() throws Exception {
+                return requestToken(cacheKey, config, oauthEndpoint, lastAccess);
+            }
+        });
+
+        // single-flight: only the first caller requests a token, everybody else waits for its outcome
+        FutureTask<CachedToken> running = inFlight.putIfAbsent(cacheKey, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(cacheKey, task);
+            }
+        }
+
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private CachedToken requestToken(String cacheKey, OAuthConfig config, String oauthEndpoint,
+                                     long lastAccess) throws Exception {
+        BitbucketApiService apiService = (BitbucketApiService) new BitbucketApi(oauthEndpoint).createService(config);
+        long started = System.currentTimeMillis();
+        Token token = apiService.getAccessToken(OAuthConstants.EMPTY_TOKEN, null);
+        BitbucketNotificationMetrics.get().getTokenFetch().update(System.currentTimeMillis() - started);
+        if (token == null || token.isEmpty()) {
+            throw new Exception("Bitbucket did not return an access token");
+        }
+
+        long now = System.currentTimeMillis();
+        long lifetime = TimeUnit.SECONDS.toMillis(expiresIn(token));
+        CachedToken cached = new CachedToken(token, config, oauthEndpoint, now + lifetime, lastAccess);
+        tokens.put(cacheKey, cached);
+        scheduleRefresh(cacheKey, cached, Math.max(lifetime / 2, lifetime - REFRESH_MARGIN_MILLIS), REFRESH_RETRY_MILLIS);
+
+        return cached;
+    }
+
+    private void scheduleRefresh(final String cacheKey, final CachedToken cached, long delay, final long retryDelay) {
+        this.refresher.schedule(new Runnable() {
+            public void run() {
+                // token was replaced or invalidated in the meantime
+                if (tokens.get(cacheKey) != cached) {
+                    return;
+                }
+                if (System.currentTimeMillis() - cached.lastAccess > IDLE_MILLIS) {
+                    tokens.remove(cacheKey, cached);
+                    return;
+                }
+                try {
+                    // a refresh is no use of the token, it must not keep an idle token alive
+                    fetch(cacheKey, cached.config, cached.oauthEndpoint, cached.lastAccess);
+                } catch (Exception e) {
+                    // keep the current token and try again until it expires, then the next caller fetches a new one
+                    long remaining = cached.expiresAt - EXPIRY_SKEW_MILLIS - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        logger.log(Level.INFO, "Bitbucket access token could not be refreshed: " + e.getMessage(), e);
+                        return;
+                    }
+                    long retry = Math.min(retryDelay, remaining);
+                    logger.log(Level.INFO, "Bitbucket access token could not be refreshed, retrying in " +
+                            TimeUnit.MILLISECONDS.toSeconds(retry) + " seconds: " + e.getMessage(), e);
+                    scheduleRefresh(cacheKey, cached, retry, retryDelay * 2);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static long expiresIn(Token token) {
+        try {
+            JsonElement response = new JsonParser().parse(token.getRawResponse());
+            if (response.isJsonObject()) {
+                JsonElement expiresIn = ((JsonObject) response).get("expires_in");
+                if (expiresIn != null && expiresIn.isJsonPrimitive()) {
+                    return expiresIn.getAsLong();
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.FINE, "Could not read expires_in from access token response", e);
+        }
+
+        return DEFAULT_EXPIRES_IN_SECONDS;
+    }
+
+    private String cacheKey(String credentialsId, OAuthConfig config, String oauthEndpoint) {
+        // the secret fingerprint makes sure an updated secret never reuses a token of the old one
+        String fingerprint = this.fingerprints.getIfPresent(config);
+        if (fingerprint == null) {
+            fingerprint = DigestUtils.sha256Hex(config.getApiKey() + ":" + config.getApiSecret());
+            this.fingerprints.put(config, fingerprint);
+        }
+
+        // the same credentials may be accepted by several bitbucket instances, each one issues its own tokens
+        return BitbucketApi.OAUTH_ENDPOINT.equals(oauthEndpoint)
+                ? credentialsId + ":" + fingerprint : credentialsId + ":" + fingerprint + "@" + oauthEndpoint;
+    }
+
+    private static class CachedToken {
+        private final Token token;
+        private final OAuthConfig config;
+        private final String oauthEndpoint;
+        private final long expiresAt;
+        private volatile long lastAccess;
+
+        CachedToken(Token token, OAuthConfig config, String oauthEndpoint, long expiresAt, long lastAccess) {
+            this.token = token;
+            this.config = config;
+            this.oauthEndpoint = oauthEndpoint;
+            this.expiresAt = expiresAt;
+            this.lastAccess = lastAccess;
+        }
+
+        boolean isExpired(long now) {
+            return now >= this.expiresAt - EXPIRY_SKEW_MILLIS;
+        }
+
+        void touch() {
+            this.lastAccess = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.api;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public abstract class BitbucketTransport {
+
+    public static final String POOLED = "pooled";
+    public static final String SCRIBE = "scribe";
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 10;
+    public static final int DEFAULT_READ_TIMEOUT_SECONDS = 30;
+
+    // asynchronous requests share a few threads, callers beyond the queue get a failed future instead of a thread
+    static final int ASYNC_THREADS = 4;
+    static final int ASYNC_QUEUE_SIZE = 100;
+    private static final ListeningExecutorService asyncExecutor = createAsyncExecutor();
+
+    private static volatile BitbucketTransport transport = create(POOLED,
+            DEFAULT_CONNECT_TIMEOUT_SECONDS, DEFAULT_READ_TIMEOUT_SECONDS);
+
+    public static BitbucketTransport get() {
+        return transport;
+    }
+
+    public static void configure(String type, int connectTimeoutSeconds, int readTimeoutSeconds) {
+        transport = create(type, connectTimeoutSeconds > 0 ? connectTimeoutSeconds : DEFAULT_CONNECT_TIMEOUT_SECONDS,
+                readTimeoutSeconds > 0 ? readTimeoutSeconds : DEFAULT_READ_TIMEOUT_SECONDS);
+    }
+
+    private static BitbucketTransport create(String type, int connectTimeoutSeconds, int readTimeoutSeconds) {
+        int connectTimeout = (int) TimeUnit.SECONDS.toMillis(connectTimeoutSeconds);
+        int readTimeout = (int) TimeUnit.SECONDS.toMillis(readTimeoutSeconds);
+        if (SCRIBE.equals(type)) {
+            return new ScribeTransport(connectTimeout, readTimeout);
+        }
+
+        return new PooledTransport(connectTimeout, readTimeout);
+    }
+
+    public abstract BitbucketHttpResponse execute(BitbucketHttpRequest request) throws IOException;
+
+    // Guava's ListenableFuture stands in for CompletableFuture, the plugin still runs on Java 6
+    public ListenableFuture<BitbucketHttpResponse> executeAsync(final BitbucketHttpRequest request) {
+        try {
+            return asyncExecutor.submit(new Callable<BitbucketHttpResponse>() {
+                public BitbucketHttpResponse call() throws Exception {
+                    return execute(request);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    private static ListeningExecutorService createAsyncExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(ASYNC_QUEUE_SIZE),
+                new NamingThreadFactory(new DaemonThreadFactory(), "Bitbucket HTTP transport"));
+        executor.allowCoreThreadTimeOut(true);
+
+        return MoreExecutors.listeningDecorator(executor);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.api;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.scribe.exceptions.OAuthConnectionException;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Response;
+import org.scribe.model.Verb;
+
+// the transport used before the pooled one, kept as a fallback
+public class ScribeTransport extends BitbucketTransport {
+
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    public ScribeTransport(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public BitbucketHttpResponse execute(BitbucketHttpRequest request) throws IOException {
+        OAuthRequest scribeRequest = new OAuthRequest(Verb.valueOf(request.getVerb()), request.getUrl());
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            scribeRequest.addHeader(header.getKey(), header.getValue());
+        }
+        if (request.getBody() != null) {
+            scribeRequest.addPayload(request.getBody());
+        }
+        scribeRequest.setConnectTimeout(this.connectTimeout, TimeUnit.MILLISECONDS);
+        scribeRequest.setReadTimeout(this.readTimeout, TimeUnit.MILLISECONDS);
+        // scribe turns keep-alive off for the whole JVM through http.keepAlive unless asked otherwise
+        scribeRequest.setConnectionKeepAlive(true);
+
+        Response response;
+        try {
+            response = scribeRequest.send();
+        } catch (OAuthConnectionException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        return new BitbucketHttpResponse(response.getCode(), response.getHeaders(), response.getBody());
+    }
+}
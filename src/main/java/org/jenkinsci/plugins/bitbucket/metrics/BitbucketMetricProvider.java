@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import hudson.Extension;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.metrics.api.MetricProvider;
+import jenkins.metrics.api.Metrics;
+
+// publishes the notification metrics through the Metrics plugin, when it is installed
+@Extension(optional = true)
+public class BitbucketMetricProvider extends MetricProvider {
+    private static final Logger logger = Logger.getLogger(BitbucketMetricProvider.class.getName());
+
+    private static final String PREFIX = "bitbucket.notifier.";
+
+    // built once, the timers are fed by the histograms from then on
+    private MetricSet metricSet;
+
+    @Override
+    public synchronized MetricSet getMetricSet() {
+        if (this.metricSet == null) {
+            this.metricSet = createMetricSet();
+        }
+
+        return this.metricSet;
+    }
+
+    private static MetricSet createMetricSet() {
+        final BitbucketNotificationMetrics metrics = BitbucketNotificationMetrics.get();
+        final Map<String, Metric> registry = new HashMap<String, Metric>();
+
+        registry.put(PREFIX + "token.fetch", timer(metrics.getTokenFetch()));
+        registry.put(PREFIX + "status.post", timer(metrics.getStatusPost()));
+        registry.put(PREFIX + "status.read", timer(metrics.getStatusRead()));
+        registry.put(PREFIX + "delivery", timer(metrics.getDelivery()));
+
+        registry.put(PREFIX + "succeeded", new Gauge<Long>() {
+            public Long getValue() {
+                return metrics.getSucceeded();
+            }
+        });
+        registry.put(PREFIX + "failed", new Gauge<Long>() {
+            public Long getValue() {
+                return metrics.getFailed();
+            }
+        });
+        registry.put(PREFIX + "retried", new Gauge<Long>() {
+            public Long getValue() {
+                return metrics.getRetried();
+            }
+        });
+        for (final char responseClass : new char[] { '2', '4', '5' }) {
+            registry.put(PREFIX + "responses." + responseClass + "xx", new Gauge<Long>() {
+                public Long getValue() {
+                    return metrics.getResponseClass(responseClass);
+                }
+            });
+        }
+        for (final String responseCode : new String[] { "429", BitbucketNotificationMetrics.IO_ERROR }) {
+            registry.put(PREFIX + "responses." + responseCode, new Gauge<Long>() {
+                public Long getValue() {
+                    return metrics.getResponses(responseCode);
+                }
+            });
+        }
+
+        // the metric set is only read once, gauges of singletons used for the first time later on
+        // go to the registry of the Metrics plugin directly
+        LiveGauges gauges = new LiveGauges(registry);
+        metrics.addGaugeListener(gauges);
+        gauges.published();
+
+        return new MetricSet() {
+            public Map<String, Metric> getMetrics() {
+                return registry;
+            }
+        };
+    }
+
+    private static Timer timer(LatencyHistogram histogram) {
+        final Timer timer = new Timer();
+        histogram.addObserver(new LatencyHistogram.Observer() {
+            public void update(long millis) {
+                timer.update(millis, TimeUnit.MILLISECONDS);
+            }
+        });
+
+        return timer;
+    }
+
+    private static Gauge<Long> gauge(final BitbucketNotificationMetrics.Gauge gauge) {
+        return new Gauge<Long>() {
+            public Long getValue() {
+                return gauge.getValue();
+            }
+        };
+    }
+
+    private static class LiveGauges implements BitbucketNotificationMetrics.GaugeListener {
+        private Map<String, Metric> initial;
+
+        LiveGauges(Map<String, Metric> initial) {
+            this.initial = initial;
+        }
+
+        synchronized void published() {
+            this.initial = null;
+        }
+
+        public synchronized void registered(String name, BitbucketNotificationMetrics.Gauge gauge) {
+            if (this.initial != null) {
+                this.initial.put(PREFIX + name, gauge(gauge));
+                return;
+            }
+
+            MetricRegistry live = Metrics.metricRegistry();
+            if (live == null) {
+                return;
+            }
+            try {
+                live.register(PREFIX + name, gauge(gauge));
+            } catch (IllegalArgumentException e) {
+                logger.log(Level.FINE, "Bitbucket notifier gauge " + name + " is registered already", e);
+            }
+        }
+    }
+}
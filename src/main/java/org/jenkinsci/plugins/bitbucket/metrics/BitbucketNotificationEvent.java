@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.metrics;
+
+import java.util.Date;
+import java.util.Locale;
+
+import net.sf.json.JSONObject;
+
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusResource;
+
+// what happened to one notification, kept in BitbucketNotificationEvents
+public class BitbucketNotificationEvent {
+
+    public static final String SENT = "sent";
+    public static final String RETRYING = "retrying";
+    public static final String FAILED = "failed";
+    public static final String SKIPPED = "skipped";
+    public static final String DEFERRED = "deferred";
+
+    private final long sequence;
+    private final long timestamp;
+    private final String host;
+    private final String owner;
+    private final String repoSlug;
+    private final String commitId;
+    private final String key;
+    private final String state;
+    private final String outcome;
+    private final int responseCode;
+    private final long latencyMillis;
+    private final int attempts;
+    private final String message;
+
+    BitbucketNotificationEvent(long sequence, BitbucketBuildStatusResource resource, BitbucketBuildStatus status,
+                               String outcome, int responseCode, long latencyMillis, int attempts, String message) {
+        this.sequence = sequence;
+        this.timestamp = System.currentTimeMillis();
+        this.host = resource.getHost();
+        this.owner = resource.getOwner();
+        this.repoSlug = resource.getRepoSlug();
+        this.commitId = resource.getCommitId();
+        this.key = status.getKey();
+        this.state = status.getState();
+        this.outcome = outcome;
+        this.responseCode = responseCode;
+        this.latencyMillis = latencyMillis;
+        this.attempts = attempts;
+        this.message = message;
+    }
+
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    public Date getTimestamp() {
+        return new Date(this.timestamp);
+    }
+
+    public String getHost() {
+        return this.host;
+    }
+
+    public String getOwner() {
+        return this.owner;
+    }
+
+    public String getRepoSlug() {
+        return this.repoSlug;
+    }
+
+    public String getCommitId() {
+        return this.commitId;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public String getState() {
+        return this.state;
+    }
+
+    public String getOutcome() {
+        return this.outcome;
+    }
+
+    // 0 when no response was received
+    public int getResponseCode() {
+        return this.responseCode;
+    }
+
+    public long getLatencyMillis() {
+        return this.latencyMillis;
+    }
+
+    public int getAttempts() {
+        return this.attempts;
+    }
+
+    public String getMessage() {
+        return this.message;
+    }
+
+    // outcome has to match exactly, text anywhere in repository, commit, state or message
+    boolean matches(String outcome, String text) {
+        if (outcome != null && !outcome.isEmpty() && !outcome.equals(this.outcome)) {
+            return false;
+        }
+        if (text == null || text.isEmpty()) {
+            return true;
+        }
+        String needle = text.toLowerCase(Locale.ENGLISH);
+
+        return contains(this.host, needle) || contains(this.owner + "/" + this.repoSlug, needle) ||
+                contains(this.commitId, needle) || contains(this.state, needle) || contains(this.message, needle);
+    }
+
+    private static boolean contains(String value, String needle) {
+        return value != null && value.toLowerCase(Locale.ENGLISH).contains(needle);
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("timestamp", this.timestamp);
+        json.put("host", this.host);
+        json.put("owner", this.owner);
+        json.put("repoSlug", this.repoSlug);
+        json.put("commitId", this.commitId);
+        json.put("key", this.key);
+        json.put("state", this.state);
+        json.put("outcome", this.outcome);
+        json.put("responseCode", this.responseCode);
+        json.put("latencyMillis", this.latencyMillis);
+        json.put("attempts", this.attempts);
+        json.put("message", this.message);
+
+        return json;
+    }
+}
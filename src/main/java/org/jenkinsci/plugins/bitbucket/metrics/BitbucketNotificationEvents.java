@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.sf.json.JSONArray;
+
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusResource;
+
+// the latest notification events, recording one never blocks: the oldest event is overwritten
+public class BitbucketNotificationEvents {
+
+    // a power of two, so the slot is a mask of the sequence
+    static final int CAPACITY = 1024;
+
+    private static final BitbucketNotificationEvents INSTANCE = new BitbucketNotificationEvents();
+
+    private final AtomicReferenceArray<BitbucketNotificationEvent> events =
+            new AtomicReferenceArray<BitbucketNotificationEvent>(CAPACITY);
+    private final AtomicLong sequence = new AtomicLong();
+
+    public static BitbucketNotificationEvents get() {
+        return INSTANCE;
+    }
+
+    public void record(BitbucketBuildStatusResource resource, BitbucketBuildStatus status, String outcome,
+                       int responseCode, long latencyMillis, int attempts, String message) {
+        long next = this.sequence.getAndIncrement();
+        this.events.set((int) (next & (CAPACITY - 1)),
+                new BitbucketNotificationEvent(next, resource, status, outcome, responseCode, latencyMillis, attempts, message));
+    }
+
+    // newest first, events recorded while copying may or may not be included
+    public List<BitbucketNotificationEvent> getEvents(String outcome, String text) {
+        List<BitbucketNotificationEvent> events = new ArrayList<BitbucketNotificationEvent>(CAPACITY);
+        for (int slot = 0; slot < CAPACITY; slot++) {
+            BitbucketNotificationEvent event = this.events.get(slot);
+            if (event != null && event.matches(outcome, text)) {
+                events.add(event);
+            }
+        }
+        Collections.sort(events, new Comparator<BitbucketNotificationEvent>() {
+            public int compare(BitbucketNotificationEvent a, BitbucketNotificationEvent b) {
+                return a.getSequence() < b.getSequence() ? 1 : a.getSequence() > b.getSequence() ? -1 : 0;
+            }
+        });
+
+        return events;
+    }
+
+    public JSONArray toJSON(String outcome, String text) {
+        JSONArray json = new JSONArray();
+        for (BitbucketNotificationEvent event : this.getEvents(outcome, text)) {
+            json.add(event.toJSON());
+        }
+
+        return json;
+    }
+}
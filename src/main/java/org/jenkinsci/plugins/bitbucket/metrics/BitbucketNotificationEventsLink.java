@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.metrics;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+
+import java.io.IOException;
+import java.util.List;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.bitbucket.notification.BitbucketNotificationDispatcher;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+// lists the latest notification events on JENKINS_URL/bitbucket-notifier-events/
+@Extension
+public class BitbucketNotificationEventsLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "clipboard.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Bitbucket notifications";
+    }
+
+    @Override
+    public String getDescription() {
+        return "The latest build status notifications sent to Bitbucket and their outcome.";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "bitbucket-notifier-events";
+    }
+
+    public String[] getOutcomes() {
+        return new String[] { BitbucketNotificationEvent.SENT, BitbucketNotificationEvent.RETRYING,
+                BitbucketNotificationEvent.FAILED, BitbucketNotificationEvent.SKIPPED, BitbucketNotificationEvent.DEFERRED };
+    }
+
+    public List<BitbucketNotificationEvent> getEvents(String outcome, String text) {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        return BitbucketNotificationEvents.get().getEvents(outcome, text);
+    }
+
+    public List<BitbucketNotificationDispatcher.LaneBacklog> getBusyLanes() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        return BitbucketNotificationDispatcher.get().getBusyLanes();
+    }
+
+    public void doJson(StaplerRequest req, StaplerResponse rsp, @QueryParameter String outcome,
+                       @QueryParameter String q) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.setHeader("Content-Disposition", "attachment; filename=bitbucket-notifier-events.json");
+        rsp.getWriter().write(BitbucketNotificationEvents.get().toJSON(outcome, q).toString(2));
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.metrics;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.json.JSONObject;
+
+public class BitbucketNotificationMetrics {
+
+    public static final String IO_ERROR = "io_error";
+    // the requests timed, statuses posted by notifications and statuses read back by the reconciler
+    public static final String STATUS_POST = "statusPost";
+    public static final String STATUS_READ = "statusRead";
+
+    private static final BitbucketNotificationMetrics INSTANCE = new BitbucketNotificationMetrics();
+
+    private final LatencyHistogram tokenFetch = new LatencyHistogram();
+    private final LatencyHistogram statusPost = new LatencyHistogram();
+    private final LatencyHistogram statusRead = new LatencyHistogram();
+    // from the creation of a notification until bitbucket accepted it, retries and waiting included
+    private final LatencyHistogram delivery = new LatencyHistogram();
+
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> responses = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, RequestRate> workspaces = new ConcurrentHashMap<String, RequestRate>();
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+    private final List<GaugeListener> gaugeListeners = new CopyOnWriteArrayList<GaugeListener>();
+
+    public interface Gauge {
+        long getValue();
+    }
+
+    // learns about every gauge, also about those registered once the singleton owning them is first used
+    public interface GaugeListener {
+        void registered(String name, Gauge gauge);
+    }
+
+    public static BitbucketNotificationMetrics get() {
+        return INSTANCE;
+    }
+
+    public LatencyHistogram getTokenFetch() {
+        return this.tokenFetch;
+    }
+
+    public LatencyHistogram getStatusPost() {
+        return this.statusPost;
+    }
+
+    public LatencyHistogram getStatusRead() {
+        return this.statusRead;
+    }
+
+    public LatencyHistogram getDelivery() {
+        return this.delivery;
+    }
+
+    public long getSucceeded() {
+        return this.succeeded.get();
+    }
+
+    public long getFailed() {
+        return this.failed.get();
+    }
+
+    public long getRetried() {
+        return this.retried.get();
+    }
+
+    public synchronized void registerGauge(String name, Gauge gauge) {
+        this.gauges.put(name, gauge);
+        for (GaugeListener listener : this.gaugeListeners) {
+            listener.registered(name, gauge);
+        }
+    }
+
+    // the listener is told about the gauges registered so far right away
+    public synchronized void addGaugeListener(GaugeListener listener) {
+        for (Map.Entry<String, Gauge> gauge : this.gauges.entrySet()) {
+            listener.registered(gauge.getKey(), gauge.getValue());
+        }
+        this.gaugeListeners.add(listener);
+    }
+
+    public Map<String, Gauge> getGauges() {
+        return Collections.unmodifiableMap(this.gauges);
+    }
+
+    public void succeeded(long createdAt) {
+        this.succeeded.incrementAndGet();
+        this.delivery.update(System.currentTimeMillis() - createdAt);
+    }
+
+    public void failed() {
+        this.failed.incrementAndGet();
+    }
+
+    public void retried() {
+        this.retried.incrementAndGet();
+    }
+
+    // responseCode is the HTTP status, or IO_ERROR when no response arrived
+    public void request(String operation, String workspace, String responseCode, long millis) {
+        if (STATUS_READ.equals(operation)) {
+            // background reads are kept apart, the response and workspace counts are those of notifications
+            this.statusRead.update(millis);
+            return;
+        }
+        this.statusPost.update(millis);
+        counter(this.responses, responseCode).incrementAndGet();
+
+        RequestRate rate = this.workspaces.get(workspace);
+        if (rate == null) {
+            RequestRate created = new RequestRate();
+            rate = this.workspaces.putIfAbsent(workspace, created);
+            if (rate == null) {
+                rate = created;
+            }
+        }
+        rate.mark();
+    }
+
+    public long getResponses(String responseCode) {
+        AtomicLong count = this.responses.get(responseCode);
+        return count != null ? count.get() : 0;
+    }
+
+    // responses grouped by class, e.g. 2xx, 4xx and 5xx
+    public long getResponseClass(char firstDigit) {
+        long count = 0;
+        for (Map.Entry<String, AtomicLong> response : this.responses.entrySet()) {
+            if (response.getKey().length() == 3 && response.getKey().charAt(0) == firstDigit) {
+                count += response.getValue().get();
+            }
+        }
+
+        return count;
+    }
+
+    public JSONObject toJSON() {
+        JSONObject latency = new JSONObject();
+        latency.put("tokenFetch", this.tokenFetch.toJSON());
+        latency.put("statusPost", this.statusPost.toJSON());
+        latency.put("statusRead", this.statusRead.toJSON());
+        latency.put("delivery", this.delivery.toJSON());
+
+        JSONObject notifications = new JSONObject();
+        notifications.put("succeeded", this.getSucceeded());
+        notifications.put("failed", this.getFailed());
+        notifications.put("retried", this.getRetried());
+        for (Map.Entry<String, Gauge> gauge : new TreeMap<String, Gauge>(this.gauges).entrySet()) {
+            notifications.put(gauge.getKey(), gauge.getValue().getValue());
+        }
+
+        JSONObject responses = new JSONObject();
+        for (Map.Entry<String, AtomicLong> response : new TreeMap<String, AtomicLong>(this.responses).entrySet()) {
+            responses.put(response.getKey(), response.getValue().get());
+        }
+
+        JSONObject workspaces = new JSONObject();
+        for (Map.Entry<String, RequestRate> workspace : new TreeMap<String, RequestRate>(this.workspaces).entrySet()) {
+            JSONObject rate = new JSONObject();
+            rate.put("total", workspace.getValue().getTotal());
+            rate.put("lastMinute", workspace.getValue().getLastMinute());
+            workspaces.put(workspace.getKey(), rate);
+        }
+
+        JSONObject json = new JSONObject();
+        json.put("latency", latency);
+        json.put("notifications", notifications);
+        json.put("responses", responses);
+        json.put("workspaces", workspaces);
+
+        return json;
+    }
+
+    private static AtomicLong counter(ConcurrentMap<String, AtomicLong> counters, String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+
+        return counter;
+    }
+}
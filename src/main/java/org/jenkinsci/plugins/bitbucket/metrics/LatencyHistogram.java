@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.sf.json.JSONObject;
+
+// fixed bucket histogram, cheap enough to be updated on every request
+public class LatencyHistogram {
+
+    private static final long[] BOUNDS_MILLIS = { 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000 };
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_MILLIS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final List<Observer> observers = new CopyOnWriteArrayList<Observer>();
+
+    // sees every update, feeds the histograms of the Metrics plugin
+    public interface Observer {
+        void update(long millis);
+    }
+
+    public void addObserver(Observer observer) {
+        this.observers.add(observer);
+    }
+
+    public void update(long millis) {
+        int bucket = 0;
+        while (bucket < BOUNDS_MILLIS.length && millis > BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        this.buckets.incrementAndGet(bucket);
+        this.count.incrementAndGet();
+        this.sum.addAndGet(millis);
+
+        long current;
+        while (millis > (current = this.max.get()) && !this.max.compareAndSet(current, millis)) {
+            // lost the race against another update, try again
+        }
+        for (Observer observer : this.observers) {
+            observer.update(millis);
+        }
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public double getMean() {
+        long count = this.count.get();
+        return count == 0 ? 0 : (double) this.sum.get() / count;
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    // upper bound of the bucket holding the given quantile, the maximum for the last bucket
+    public long getQuantile(double quantile) {
+        long count = this.count.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int bucket = 0; bucket < BOUNDS_MILLIS.length; bucket++) {
+            seen += this.buckets.get(bucket);
+            if (seen >= rank) {
+                return BOUNDS_MILLIS[bucket];
+            }
+        }
+
+        return this.max.get();
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("count", this.getCount());
+        json.put("mean", this.getMean());
+        json.put("p50", this.getQuantile(0.5));
+        json.put("p95", this.getQuantile(0.95));
+        json.put("p99", this.getQuantile(0.99));
+        json.put("max", this.getMax());
+
+        JSONObject buckets = new JSONObject();
+        for (int bucket = 0; bucket < BOUNDS_MILLIS.length; bucket++) {
+            buckets.put("le" + BOUNDS_MILLIS[bucket], this.buckets.get(bucket));
+        }
+        buckets.put("inf", this.buckets.get(BOUNDS_MILLIS.length));
+        json.put("buckets", buckets);
+
+        return json;
+    }
+}
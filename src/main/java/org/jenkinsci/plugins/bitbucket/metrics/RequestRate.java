@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+// counts requests in fixed one minute windows
+public class RequestRate {
+
+    private long total;
+    private long window;
+    private long currentCount;
+    private long previousCount;
+
+    public synchronized void mark() {
+        this.roll(currentMinute());
+        this.currentCount++;
+        this.total++;
+    }
+
+    public synchronized long getTotal() {
+        return this.total;
+    }
+
+    // requests during the last complete minute
+    public synchronized long getLastMinute() {
+        this.roll(currentMinute());
+        return this.previousCount;
+    }
+
+    private void roll(long minute) {
+        if (minute == this.window) {
+            return;
+        }
+        this.previousCount = minute == this.window + 1 ? this.currentCount : 0;
+        this.currentCount = 0;
+        this.window = minute;
+    }
+
+    private static long currentMinute() {
+        return TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis());
+    }
+}
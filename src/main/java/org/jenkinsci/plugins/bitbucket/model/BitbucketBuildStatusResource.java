@@ -24,25 +24,33 @@
 
 package org.jenkinsci.plugins.bitbucket.model;
 
+import org.jenkinsci.plugins.bitbucket.api.BitbucketEndpoint;
 import org.scribe.model.Verb;
 
 public class BitbucketBuildStatusResource {
 
-    private static final String API_ENDPOINT = "https://api.bitbucket.org/2.0/";
-
     private final String owner;
     private final String repoSlug;
     private final String commitId;
+    // the host the repository was cloned from, it selects the endpoint the status is sent to
+    private final String host;
 
     public BitbucketBuildStatusResource(String owner, String repoSlug, String commitId) {
+        this(owner, repoSlug, commitId, null);
+    }
+
+    public BitbucketBuildStatusResource(String owner, String repoSlug, String commitId, String host) {
         this.owner = owner;
         this.repoSlug = repoSlug;
         this.commitId = commitId;
+        this.host = host;
     }
 
     public String generateUrl(Verb verb) throws Exception {
         if (verb.equals(Verb.POST)) {
-            return API_ENDPOINT + "repositories/" + this.owner + "/" + this.repoSlug + "/commit/" + this.commitId + "/statuses/build";
+            return BitbucketEndpoint.forResource(this).getBuildStatusUrl(this);
+        } else if (verb.equals(Verb.GET)) {
+            return BitbucketEndpoint.forResource(this).getStatusesUrl(this);
         } else {
             throw new Exception("Verb " + verb.toString() + "not allowed or implemented");
         }
@@ -59,4 +67,8 @@ public class BitbucketBuildStatusResource {
     public String getRepoSlug() {
         return this.repoSlug;
     }
+
+    public String getHost() {
+        return this.host;
+    }
 }
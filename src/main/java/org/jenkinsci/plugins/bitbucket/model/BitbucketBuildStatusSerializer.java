@@ -28,10 +28,18 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import java.io.ByteArrayOutputStream;
 import java.lang.reflect.Type;
 
 public class BitbucketBuildStatusSerializer implements JsonSerializer<BitbucketBuildStatus> {
 
+    private static final ThreadLocal<JsonBuffer> buffers = new ThreadLocal<JsonBuffer>() {
+        @Override
+        protected JsonBuffer initialValue() {
+            return new JsonBuffer();
+        }
+    };
+
     public JsonElement serialize(final BitbucketBuildStatus buildStatus, final Type type,
                                  final JsonSerializationContext jsonSerializationContext) {
 
@@ -43,13 +51,113 @@ public class BitbucketBuildStatusSerializer implements JsonSerializer<BitbucketB
         jsonObject.addProperty("url", buildStatus.getUrl());
 
         // optionals
-        if (!buildStatus.getName().isEmpty()) {
+        if (isPresent(buildStatus.getName())) {
             jsonObject.addProperty("name", buildStatus.getName());
         }
-        if (!buildStatus.getDescription().isEmpty()) {
+        if (isPresent(buildStatus.getDescription())) {
             jsonObject.addProperty("description", buildStatus.getDescription());
         }
 
         return jsonObject;
     }
+
+    private static boolean isPresent(String value) {
+        return value != null && !value.isEmpty();
+    }
+
+    // writes the same JSON as serialize, straight as UTF-8 into a buffer reused by the calling thread
+    public static byte[] toJsonBytes(final BitbucketBuildStatus buildStatus) {
+        JsonBuffer buffer = buffers.get();
+        buffer.reset();
+        writeJson(buildStatus, buffer);
+
+        return buffer.toByteArray();
+    }
+
+    public static void writeJson(final BitbucketBuildStatus buildStatus, final JsonBuffer buffer) {
+        buffer.beginObject();
+
+        // required
+        buffer.writeField("state", buildStatus.getState());
+        buffer.writeField("key", buildStatus.getKey());
+        buffer.writeField("url", buildStatus.getUrl());
+
+        // optionals
+        if (isPresent(buildStatus.getName())) {
+            buffer.writeField("name", buildStatus.getName());
+        }
+        if (isPresent(buildStatus.getDescription())) {
+            buffer.writeField("description", buildStatus.getDescription());
+        }
+
+        buffer.endObject();
+    }
+
+    public static class JsonBuffer extends ByteArrayOutputStream {
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+        private boolean firstField;
+
+        public JsonBuffer() {
+            super(512);
+        }
+
+        void beginObject() {
+            this.write('{');
+            this.firstField = true;
+        }
+
+        void endObject() {
+            this.write('}');
+        }
+
+        // null values are left out, as Gson does unless told to serialize nulls
+        void writeField(String name, String value) {
+            if (value == null) {
+                return;
+            }
+            if (!this.firstField) {
+                this.write(',');
+            }
+            this.firstField = false;
+            this.writeString(name);
+            this.write(':');
+            this.writeString(value);
+        }
+
+        private void writeString(String value) {
+            this.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    this.write('\\');
+                    this.write(c);
+                } else if (c < 0x20) {
+                    this.write('\\');
+                    this.write('u');
+                    this.write('0');
+                    this.write('0');
+                    this.write(HEX[c >> 4]);
+                    this.write(HEX[c & 0xf]);
+                } else if (c < 0x80) {
+                    this.write(c);
+                } else if (c < 0x800) {
+                    this.write(0xc0 | (c >> 6));
+                    this.write(0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    this.write(0xf0 | (codePoint >> 18));
+                    this.write(0x80 | ((codePoint >> 12) & 0x3f));
+                    this.write(0x80 | ((codePoint >> 6) & 0x3f));
+                    this.write(0x80 | (codePoint & 0x3f));
+                } else {
+                    this.write(0xe0 | (c >> 12));
+                    this.write(0x80 | ((c >> 6) & 0x3f));
+                    this.write(0x80 | (c & 0x3f));
+                }
+            }
+            this.write('"');
+        }
+    }
 }
@@ -0,0 +1,355 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jenkins.util.Timer;
+
+import org.jenkinsci.plugins.bitbucket.api.BitbucketEndpoint;
+import org.jenkinsci.plugins.bitbucket.metrics.BitbucketNotificationMetrics;
+import org.scribe.exceptions.OAuthConnectionException;
+
+// stops sending to an api host which keeps failing for a credential, notifications wait until it recovers
+public class BitbucketCircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final int DEFAULT_COOL_DOWN_SECONDS = 60;
+    // returned by acquire when the notification waits for the outcome of a half open probe
+    public static final long PROBING = -1;
+
+    // closed circuits without a failure for this long are dropped, a new one starts out the same
+    static final long IDLE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long SWEEP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    public static final String CLOSED = "closed";
+    public static final String OPEN = "open";
+    public static final String HALF_OPEN = "half open";
+
+    private static final BitbucketCircuitBreaker INSTANCE = new BitbucketCircuitBreaker();
+
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+    private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private volatile long coolDownMillis = TimeUnit.SECONDS.toMillis(DEFAULT_COOL_DOWN_SECONDS);
+    private volatile long lastSweep;
+
+    private BitbucketCircuitBreaker() {
+        BitbucketNotificationMetrics.get().registerGauge("circuits.open", new BitbucketNotificationMetrics.Gauge() {
+            public long getValue() {
+                long open = 0;
+                for (Circuit circuit : circuits.values()) {
+                    if (!CLOSED.equals(circuit.getState())) {
+                        open++;
+                    }
+                }
+                return open;
+            }
+        });
+    }
+
+    public static BitbucketCircuitBreaker get() {
+        return INSTANCE;
+    }
+
+    // a threshold of 0 never opens a circuit
+    public void configure(int failureThreshold, int coolDownSeconds) {
+        this.failureThreshold = Math.max(failureThreshold, 0);
+        this.coolDownMillis = TimeUnit.SECONDS.toMillis(coolDownSeconds > 0 ? coolDownSeconds : DEFAULT_COOL_DOWN_SECONDS);
+        if (this.failureThreshold == 0) {
+            for (Circuit circuit : this.circuits.values()) {
+                if (this.circuits.remove(circuit.getKey(), circuit)) {
+                    wake(circuit.succeeded());
+                }
+            }
+        }
+    }
+
+    public static String key(BitbucketNotification notification) {
+        String host;
+        try {
+            host = new URL(BitbucketEndpoint.forResource(notification.getBuildStatusResource()).getApiUrl()).getHost();
+        } catch (Exception e) {
+            host = String.valueOf(notification.getBuildStatusResource().getHost());
+        }
+
+        return host + " " + notification.getCredentialsId();
+    }
+
+    // returns how many milliseconds to wait before asking again, 0 if the notification may be sent now,
+    // PROBING if another notification probes the host: the waiter then runs once the probe has an outcome
+    public long acquire(String key, Runnable waiter) {
+        if (this.failureThreshold == 0) {
+            return 0;
+        }
+        Circuit circuit = this.circuits.get(key);
+        if (circuit == null) {
+            return 0;
+        }
+
+        long coolDownMillis = this.coolDownMillis;
+        long wait = circuit.acquire(System.currentTimeMillis(), coolDownMillis, waiter);
+        if (wait == PROBING && circuit.watchProbe()) {
+            // a probe which never reports back must not hold up its waiters for good
+            final Circuit watched = circuit;
+            final long probeStartedAt = circuit.getProbeStartedAt();
+            Timer.get().schedule(new Runnable() {
+                public void run() {
+                    wake(watched.probeLost(probeStartedAt));
+                }
+            }, coolDownMillis + 1, TimeUnit.MILLISECONDS);
+        }
+
+        return wait;
+    }
+
+    // background work only talks to hosts which are known to be fine, it never probes an open circuit
+    public boolean isClosed(String key) {
+        Circuit circuit = this.circuits.get(key);
+
+        return circuit == null || CLOSED.equals(circuit.getState());
+    }
+
+    public void succeeded(String key) {
+        Circuit circuit = this.circuits.get(key);
+        if (circuit != null) {
+            wake(circuit.succeeded());
+        }
+    }
+
+    // only failures of the host itself count, a response telling the request was wrong shows the host is fine
+    public void failed(String key, Throwable t) {
+        if (this.failureThreshold == 0) {
+            return;
+        }
+        if (!isHostFailure(t)) {
+            this.succeeded(key);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        this.sweep(now);
+        while (true) {
+            Circuit circuit = this.circuits.get(key);
+            if (circuit == null) {
+                Circuit created = new Circuit(key);
+                circuit = this.circuits.putIfAbsent(key, created);
+                if (circuit == null) {
+                    circuit = created;
+                }
+            }
+            List<Runnable> waiters = circuit.failed(now, this.failureThreshold);
+            // null if the circuit was evicted meanwhile, the failure goes to the one replacing it
+            if (waiters != null) {
+                wake(waiters);
+                return;
+            }
+        }
+    }
+
+    // circuits are only created by failures, every host which failed once would otherwise keep its circuit
+    void sweep(long now) {
+        if (now - this.lastSweep < SWEEP_INTERVAL_MILLIS) {
+            return;
+        }
+        this.lastSweep = now;
+
+        for (Circuit circuit : this.circuits.values()) {
+            if (circuit.evictIfIdle(now)) {
+                this.circuits.remove(circuit.getKey(), circuit);
+            }
+        }
+    }
+
+    // the waiters ask again, outside of the lock of their circuit
+    private static void wake(List<Runnable> waiters) {
+        for (Runnable waiter : waiters) {
+            waiter.run();
+        }
+    }
+
+    // counts the notifications waiting for a circuit, for display only
+    public void deferred(String key) {
+        Circuit circuit = this.circuits.get(key);
+        if (circuit != null) {
+            circuit.deferred.incrementAndGet();
+        }
+    }
+
+    public void resumed(String key) {
+        Circuit circuit = this.circuits.get(key);
+        if (circuit != null) {
+            circuit.deferred.decrementAndGet();
+        }
+    }
+
+    public static boolean isHostFailure(Throwable t) {
+        if (t instanceof BitbucketNotificationException) {
+            return ((BitbucketNotificationException) t).getResponseCode() >= 500;
+        }
+
+        return t instanceof IOException || t instanceof OAuthConnectionException;
+    }
+
+    public List<Circuit> getCircuits() {
+        return new ArrayList<Circuit>(this.circuits.values());
+    }
+
+    public static class Circuit {
+        private final String key;
+        private String state = CLOSED;
+        private int consecutiveFailures;
+        private long openedAt;
+        private long probeStartedAt;
+        private long lastFailure;
+        private boolean evicted;
+        private boolean probeWatched;
+        private List<Runnable> waiters = new ArrayList<Runnable>();
+        private final AtomicInteger deferred = new AtomicInteger();
+
+        Circuit(String key) {
+            this.key = key;
+        }
+
+        synchronized long acquire(long now, long coolDownMillis, Runnable waiter) {
+            if (OPEN.equals(this.state)) {
+                long remaining = this.openedAt + coolDownMillis - now;
+                if (remaining > 0) {
+                    return remaining;
+                }
+                // cool down is over, let one notification find out whether the host recovered
+                this.state = HALF_OPEN;
+                this.startProbe(now);
+                return 0;
+            }
+            if (HALF_OPEN.equals(this.state)) {
+                if (now - this.probeStartedAt > coolDownMillis) {
+                    // the probe got lost, it was superseded or is waiting for the rate limit
+                    this.startProbe(now);
+                    return 0;
+                }
+                this.waiters.add(waiter);
+                this.deferred.incrementAndGet();
+                return PROBING;
+            }
+
+            return 0;
+        }
+
+        private void startProbe(long now) {
+            this.probeStartedAt = now;
+            this.probeWatched = false;
+        }
+
+        // true for the first waiter of a probe, which then watches for the probe getting lost
+        synchronized boolean watchProbe() {
+            if (this.probeWatched) {
+                return false;
+            }
+            this.probeWatched = true;
+            return true;
+        }
+
+        synchronized long getProbeStartedAt() {
+            return this.probeStartedAt;
+        }
+
+        // the waiters of a probe which did not report back in time, they ask again and one of them probes
+        synchronized List<Runnable> probeLost(long probeStartedAt) {
+            if (!HALF_OPEN.equals(this.state) || this.probeStartedAt != probeStartedAt) {
+                return Collections.emptyList();
+            }
+            return this.takeWaiters();
+        }
+
+        synchronized List<Runnable> succeeded() {
+            this.state = CLOSED;
+            this.consecutiveFailures = 0;
+            return this.takeWaiters();
+        }
+
+        synchronized List<Runnable> failed(long now, int failureThreshold) {
+            if (this.evicted) {
+                return null;
+            }
+            this.lastFailure = now;
+            this.consecutiveFailures++;
+            if (HALF_OPEN.equals(this.state) || this.consecutiveFailures >= failureThreshold) {
+                this.state = OPEN;
+                this.openedAt = now;
+            }
+            // waiters of a failed probe ask again and wait for the next cool down
+            return this.takeWaiters();
+        }
+
+        // a closed circuit is idle once it recovered or its last failure is long ago, nobody waits for it then
+        synchronized boolean evictIfIdle(long now) {
+            if (CLOSED.equals(this.state) && this.waiters.isEmpty() && this.deferred.get() == 0
+                    && (this.consecutiveFailures == 0 || now - this.lastFailure > IDLE_MILLIS)) {
+                this.evicted = true;
+            }
+            return this.evicted;
+        }
+
+        private List<Runnable> takeWaiters() {
+            if (this.waiters.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<Runnable> taken = this.waiters;
+            this.waiters = new ArrayList<Runnable>();
+            this.deferred.addAndGet(-taken.size());
+            return taken;
+        }
+
+        public String getKey() {
+            return this.key;
+        }
+
+        public synchronized String getState() {
+            return this.state;
+        }
+
+        public synchronized int getConsecutiveFailures() {
+            return this.consecutiveFailures;
+        }
+
+        // when the circuit opened last, null while it is closed
+        public synchronized Date getOpenedSince() {
+            return CLOSED.equals(this.state) ? null : new Date(this.openedAt);
+        }
+
+        public int getDeferred() {
+            return this.deferred.get();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+
+// remembers the last status bitbucket acknowledged for every commit and key, to skip sending it again. The last
+// status submitted is remembered as well: while another one is still on its way, bitbucket will show that one and
+// the acknowledged status has to be sent again.
+public class BitbucketLastSentCache {
+
+    private static final int MAXIMUM_SIZE = 10000;
+    // bounds how long a status edited on bitbucket side stays unrepaired by an identical notification
+    private static final long EXPIRE_AFTER_MINUTES = 60;
+
+    private final Cache<String, String> lastSent = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_SIZE)
+            .expireAfterWrite(EXPIRE_AFTER_MINUTES, TimeUnit.MINUTES)
+            .build();
+    private final Cache<String, String> lastSubmitted = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_SIZE)
+            .expireAfterWrite(EXPIRE_AFTER_MINUTES, TimeUnit.MINUTES)
+            .build();
+    private final AtomicLong skipped = new AtomicLong();
+
+    public boolean isAlreadySent(BitbucketNotification notification) {
+        String statusKey = notification.getStatusKey();
+        String fingerprint = fingerprint(notification.getBuildStatus());
+        if (fingerprint.equals(this.lastSent.getIfPresent(statusKey))
+                && fingerprint.equals(this.lastSubmitted.getIfPresent(statusKey))) {
+            this.skipped.incrementAndGet();
+            return true;
+        }
+
+        return false;
+    }
+
+    // called for every notification which is going to be sent, before it is queued
+    public void submitted(BitbucketNotification notification) {
+        this.lastSubmitted.put(notification.getStatusKey(), fingerprint(notification.getBuildStatus()));
+    }
+
+    public void sent(BitbucketNotification notification) {
+        this.lastSent.put(notification.getStatusKey(), fingerprint(notification.getBuildStatus()));
+    }
+
+    public long getSkippedCount() {
+        return this.skipped.get();
+    }
+
+    public long size() {
+        return this.lastSent.size();
+    }
+
+    private static String fingerprint(BitbucketBuildStatus buildStatus) {
+        return buildStatus.getState() + '\n' + buildStatus.getUrl() + '\n' + buildStatus.getName() + '\n' +
+                buildStatus.getDescription();
+    }
+}
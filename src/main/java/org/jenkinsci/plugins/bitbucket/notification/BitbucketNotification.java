@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import com.cloudbees.plugins.credentials.common.IdCredentials;
+import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
+import hudson.model.TaskListener;
+
+import org.jenkinsci.plugins.bitbucket.api.BitbucketEndpoint;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusResource;
+
+public class BitbucketNotification {
+
+    private final UsernamePasswordCredentials credentials;
+    private final BitbucketBuildStatusResource buildStatusResource;
+    private final BitbucketBuildStatus buildStatus;
+    private final TaskListener listener;
+    private final String jobName;
+    private final boolean force;
+    private final long createdAt = System.currentTimeMillis();
+    private String statusKey;
+
+    public BitbucketNotification(UsernamePasswordCredentials credentials,
+                                 BitbucketBuildStatusResource buildStatusResource,
+                                 BitbucketBuildStatus buildStatus,
+                                 TaskListener listener,
+                                 String jobName) {
+        this(credentials, buildStatusResource, buildStatus, listener, jobName, false);
+    }
+
+    public BitbucketNotification(UsernamePasswordCredentials credentials,
+                                 BitbucketBuildStatusResource buildStatusResource,
+                                 BitbucketBuildStatus buildStatus,
+                                 TaskListener listener,
+                                 String jobName,
+                                 boolean force) {
+        this.credentials = credentials;
+        this.buildStatusResource = buildStatusResource;
+        this.buildStatus = buildStatus;
+        this.listener = listener;
+        this.jobName = jobName;
+        this.force = force;
+    }
+
+    public UsernamePasswordCredentials getCredentials() {
+        return this.credentials;
+    }
+
+    public String getCredentialsId() {
+        return this.credentials instanceof IdCredentials ? ((IdCredentials) this.credentials).getId() : null;
+    }
+
+    public BitbucketBuildStatusResource getBuildStatusResource() {
+        return this.buildStatusResource;
+    }
+
+    public BitbucketBuildStatus getBuildStatus() {
+        return this.buildStatus;
+    }
+
+    public TaskListener getListener() {
+        return this.listener;
+    }
+
+    public String getJobName() {
+        return this.jobName;
+    }
+
+    public long getCreatedAt() {
+        return this.createdAt;
+    }
+
+    // sent even when bitbucket already shows the very same status
+    public boolean isForce() {
+        return this.force;
+    }
+
+    // notifications with the same key end up in the same bitbucket build status, only the latest one matters
+    public String getStatusKey() {
+        String statusKey = this.statusKey;
+        if (statusKey == null) {
+            statusKey = this.getInstance() + this.buildStatusResource.getOwner() + "/" +
+                    this.buildStatusResource.getRepoSlug() + "/" + this.buildStatusResource.getCommitId() + "/" +
+                    this.buildStatus.getKey();
+            this.statusKey = statusKey;
+        }
+
+        return statusKey;
+    }
+
+    // the same repository may be mirrored on several bitbucket instances, while clones from bitbucket.org and
+    // altssh.bitbucket.org are the same repository: the instance is the api url of the endpoint, not the clone host
+    private String getInstance() {
+        try {
+            return BitbucketEndpoint.forResource(this.buildStatusResource).getApiUrl();
+        } catch (Exception e) {
+            // no endpoint, the notification is not going anywhere
+            String host = this.buildStatusResource.getHost();
+            return host == null ? "" : host + ":";
+        }
+    }
+}
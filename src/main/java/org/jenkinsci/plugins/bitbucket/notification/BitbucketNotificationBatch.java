@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusResource;
+
+// the notifications submitted for one build status, one per repository, sent concurrently by the dispatcher
+public class BitbucketNotificationBatch {
+
+    private final String state;
+    private final List<BitbucketBuildStatusResource> resources = new ArrayList<BitbucketBuildStatusResource>();
+    private final List<ListenableFuture<BitbucketNotificationResult>> notifications =
+            new ArrayList<ListenableFuture<BitbucketNotificationResult>>();
+
+    public BitbucketNotificationBatch(String state) {
+        this.state = state;
+    }
+
+    public void add(BitbucketBuildStatusResource resource, ListenableFuture<BitbucketNotificationResult> notification) {
+        this.resources.add(resource);
+        this.notifications.add(notification);
+    }
+
+    public List<ListenableFuture<BitbucketNotificationResult>> getNotifications() {
+        return this.notifications;
+    }
+
+    public int size() {
+        return this.notifications.size();
+    }
+
+    // waits for every repository to be notified, failures are collected instead of thrown
+    public Summary await() throws InterruptedException {
+        Summary summary = new Summary(this.state, this.size());
+        for (int i = 0; i < this.notifications.size(); i++) {
+            try {
+                if (this.notifications.get(i).get().isSkipped()) {
+                    summary.skipped++;
+                } else {
+                    summary.succeeded++;
+                }
+            } catch (ExecutionException e) {
+                summary.failures.add(new Failure(this.resources.get(i), e.getCause()));
+            }
+        }
+
+        return summary;
+    }
+
+    public static class Summary {
+        private final String state;
+        private final int total;
+        private int succeeded;
+        private int skipped;
+        private final List<Failure> failures = new ArrayList<Failure>();
+
+        Summary(String state, int total) {
+            this.state = state;
+            this.total = total;
+        }
+
+        public int getSucceeded() {
+            return this.succeeded;
+        }
+
+        public int getSkipped() {
+            return this.skipped;
+        }
+
+        public int getFailed() {
+            return this.failures.size();
+        }
+
+        public List<Failure> getFailures() {
+            return this.failures;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder message = new StringBuilder("Build status ").append(this.state).append(" sent to ")
+                    .append(this.succeeded + this.skipped).append(" of ").append(this.total).append(" BitBucket repositories");
+            if (this.skipped > 0) {
+                message.append(" (").append(this.skipped).append(" already up to date)");
+            }
+            if (!this.failures.isEmpty()) {
+                message.append(", ").append(this.failures.size()).append(" failed:");
+                for (Failure failure : this.failures) {
+                    message.append("\n    ").append(failure);
+                }
+            }
+
+            return message.toString();
+        }
+    }
+
+    public static class Failure {
+        private final BitbucketBuildStatusResource resource;
+        private final Throwable cause;
+
+        Failure(BitbucketBuildStatusResource resource, Throwable cause) {
+            this.resource = resource;
+            this.cause = cause;
+        }
+
+        public BitbucketBuildStatusResource getResource() {
+            return this.resource;
+        }
+
+        public Throwable getCause() {
+            return this.cause;
+        }
+
+        @Override
+        public String toString() {
+            return this.resource.getOwner() + "/" + this.resource.getRepoSlug() + " commit " +
+                    this.resource.getCommitId() + ": " + this.cause.getMessage();
+        }
+    }
+}
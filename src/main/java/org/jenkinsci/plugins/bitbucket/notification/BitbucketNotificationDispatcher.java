@@ -0,0 +1,750 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.util.Timer;
+
+import org.jenkinsci.plugins.bitbucket.metrics.BitbucketNotificationEvent;
+import org.jenkinsci.plugins.bitbucket.metrics.BitbucketNotificationEvents;
+import org.jenkinsci.plugins.bitbucket.metrics.BitbucketNotificationMetrics;
+
+public class BitbucketNotificationDispatcher {
+    private static final Logger logger = Logger.getLogger(BitbucketNotificationDispatcher.class.getName());
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+    // statuses are hashed onto a fixed number of lanes, independent of the number of threads
+    public static final int LANES = 64;
+    public static final int DEFAULT_SHUTDOWN_TIMEOUT_SECONDS = 30;
+    // how long a build submitting during the shutdown waits for its notification to reach the journal
+    private static final long LATE_JOURNAL_TIMEOUT_SECONDS = 5;
+
+    private static final BitbucketNotificationDispatcher INSTANCE = createInstance();
+
+    private final ThreadPoolExecutor executor;
+    private final Lane[] lanes = new Lane[LANES];
+    private final ConcurrentMap<String, PendingNotification> pending = new ConcurrentHashMap<String, PendingNotification>();
+    // notifications waiting on the timer for a retry, the rate limit or an open circuit
+    private final ConcurrentMap<String, PendingNotification> waiting = new ConcurrentHashMap<String, PendingNotification>();
+    private final BitbucketLastSentCache lastSent = new BitbucketLastSentCache();
+    private final AtomicInteger queued = new AtomicInteger();
+    // notifications given up on while shutting down, they stay in the journal
+    private final ConcurrentLinkedQueue<PendingNotification> abandoned = new ConcurrentLinkedQueue<PendingNotification>();
+    private volatile boolean closed;
+    // when the shutdown stops waiting for the queue to drain, 0 while running
+    private volatile long drainDeadline;
+    // signalled while shutting down whenever the last lane ran empty
+    private final Object drained = new Object();
+    private volatile int queueSize = DEFAULT_QUEUE_SIZE;
+    private volatile BitbucketNotificationJournal journal;
+    private volatile BitbucketRetryPolicy retryPolicy = new BitbucketRetryPolicy(BitbucketRetryPolicy.DEFAULT_MAX_ATTEMPTS,
+            BitbucketRetryPolicy.DEFAULT_BASE_DELAY_SECONDS, BitbucketRetryPolicy.DEFAULT_MAX_DELAY_SECONDS);
+    private final Sender sender;
+
+    // sends a single notification to bitbucket, the dispatcher decides when and how often
+    interface Sender {
+        BitbucketNotificationResult send(BitbucketNotification notification) throws Exception;
+    }
+
+    private static BitbucketNotificationDispatcher createInstance() {
+        BitbucketNotificationDispatcher dispatcher = new BitbucketNotificationDispatcher(new Sender() {
+            public BitbucketNotificationResult send(BitbucketNotification notification) throws Exception {
+                return BitbucketNotificationSender.send(notification);
+            }
+        });
+        dispatcher.registerGauges();
+
+        return dispatcher;
+    }
+
+    BitbucketNotificationDispatcher(Sender sender) {
+        this.sender = sender;
+        // the queue itself is unbounded so that its capacity can be changed at runtime, see enqueue
+        this.executor = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "Bitbucket build status notifier"));
+        this.executor.allowCoreThreadTimeOut(true);
+        for (int i = 0; i < LANES; i++) {
+            this.lanes[i] = new Lane(i);
+        }
+    }
+
+    private void registerGauges() {
+        BitbucketNotificationMetrics metrics = BitbucketNotificationMetrics.get();
+        metrics.registerGauge("queue.depth", new BitbucketNotificationMetrics.Gauge() {
+            public long getValue() {
+                return queued.get();
+            }
+        });
+        metrics.registerGauge("in.flight", new BitbucketNotificationMetrics.Gauge() {
+            public long getValue() {
+                return executor.getActiveCount();
+            }
+        });
+        metrics.registerGauge("skipped", new BitbucketNotificationMetrics.Gauge() {
+            public long getValue() {
+                return lastSent.getSkippedCount();
+            }
+        });
+        metrics.registerGauge("lanes.max.backlog", new BitbucketNotificationMetrics.Gauge() {
+            public long getValue() {
+                int max = 0;
+                for (Lane lane : lanes) {
+                    max = Math.max(max, lane.getBacklog());
+                }
+                return max;
+            }
+        });
+    }
+
+    public static BitbucketNotificationDispatcher get() {
+        return INSTANCE;
+    }
+
+    public void configure(int threads, int queueSize) {
+        threads = threads > 0 ? threads : DEFAULT_THREADS;
+        // grow the maximum first, core size may never exceed it
+        if (threads > this.executor.getMaximumPoolSize()) {
+            this.executor.setMaximumPoolSize(threads);
+            this.executor.setCorePoolSize(threads);
+        } else {
+            this.executor.setCorePoolSize(threads);
+            this.executor.setMaximumPoolSize(threads);
+        }
+        this.queueSize = queueSize > 0 ? queueSize : DEFAULT_QUEUE_SIZE;
+    }
+
+    public void setRetryPolicy(BitbucketRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public void setJournal(BitbucketNotificationJournal journal) {
+        this.journal = journal;
+    }
+
+    public BitbucketLastSentCache getLastSentCache() {
+        return this.lastSent;
+    }
+
+    public int getQueueDepth() {
+        return this.queued.get();
+    }
+
+    public int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+
+    // the lanes with work queued, a lane standing out points at a commit which is notified over and over
+    public List<LaneBacklog> getBusyLanes() {
+        List<LaneBacklog> busy = new ArrayList<LaneBacklog>();
+        for (Lane lane : this.lanes) {
+            LaneBacklog backlog = lane.snapshot();
+            if (backlog.getBacklog() > 0) {
+                busy.add(backlog);
+            }
+        }
+
+        return busy;
+    }
+
+    public ListenableFuture<BitbucketNotificationResult> submit(final BitbucketNotification notification) {
+        // a notification with another status which is pending, waiting for a retry or being sent would overwrite the
+        // one bitbucket shows, so it is sent anyway and takes that one over. The last sent cache knows about the
+        // one being sent, it has left the pending map already.
+        String statusKey = notification.getStatusKey();
+        if (!notification.isForce() && !this.pending.containsKey(statusKey) && !this.waiting.containsKey(statusKey)
+                && this.lastSent.isAlreadySent(notification)) {
+            report(notification, "Build status " + notification.getBuildStatus().getState() + " for commit " +
+                    notification.getBuildStatusResource().getCommitId() + " is already shown by BitBucket, not sent again");
+            record(notification, BitbucketNotificationEvent.SKIPPED, 0, 0, 0, null);
+            return Futures.immediateFuture(BitbucketNotificationResult.skipped());
+        }
+
+        BitbucketNotificationJournal journal = this.journal;
+        if (this.closed) {
+            return this.rejectLate(notification, journal);
+        }
+
+        final PendingNotification entry = new PendingNotification(notification);
+        if (journal != null) {
+            entry.journaled(journal, journal.nextId(), true);
+        }
+
+        return this.dispatch(entry);
+    }
+
+    // sends a notification recovered from the journal, it is already recorded under the given id
+    public ListenableFuture<BitbucketNotificationResult> resubmit(final BitbucketNotification notification, long journalId) {
+        final PendingNotification entry = new PendingNotification(notification);
+        BitbucketNotificationJournal journal = this.journal;
+        if (journal != null) {
+            entry.journaled(journal, journalId, false);
+        }
+
+        return this.dispatch(entry);
+    }
+
+    // too late to be sent before the shutdown: it is kept in the journal for the next start if that still
+    // works out, the journal is closed only after the drain. Otherwise the build is told that it is lost.
+    private ListenableFuture<BitbucketNotificationResult> rejectLate(BitbucketNotification notification,
+                                                                     BitbucketNotificationJournal journal) {
+        String status = "build status " + notification.getBuildStatus().getState() + " for commit " +
+                notification.getBuildStatusResource().getCommitId();
+        if (journal != null) {
+            try {
+                journal.append(BitbucketNotificationJournal.Entry.from(journal.nextId(), notification))
+                        .get(LATE_JOURNAL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                report(notification, "Jenkins is shutting down, " + status + " will be sent to BitBucket after the restart");
+                return Futures.immediateFailedFuture(new IOException("Jenkins is shutting down, the notification was journaled"));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Bitbucket notification submitted during the shutdown could not be journaled", e);
+            }
+        }
+
+        BitbucketNotificationMetrics.get().failed();
+        record(notification, BitbucketNotificationEvent.FAILED, 0, 0, 0, "submitted during the shutdown");
+        report(notification, "Jenkins is shutting down, " + status + " was not sent to BitBucket and is lost");
+        return Futures.immediateFailedFuture(new RejectedExecutionException("Jenkins is shutting down, the notification is lost"));
+    }
+
+    private ListenableFuture<BitbucketNotificationResult> dispatch(final PendingNotification entry) {
+        final BitbucketNotification notification = entry.notification;
+        String statusKey = notification.getStatusKey();
+        this.lastSent.submitted(notification);
+
+        // coalesce: a pending notification which was not sent yet is replaced by the newer one
+        while (true) {
+            PendingNotification previous = this.pending.putIfAbsent(statusKey, entry);
+            if (previous == null) {
+                this.enqueue(statusKey);
+                break;
+            }
+            if (this.pending.replace(statusKey, previous, entry)) {
+                previous.supersede(entry);
+                break;
+            }
+        }
+
+        Futures.addCallback(entry.handle, new FutureCallback<BitbucketNotificationResult>() {
+            public void onSuccess(BitbucketNotificationResult result) {
+                if (!entry.superseded) {
+                    report(notification, "Sending build status " + notification.getBuildStatus().getState() +
+                            " for commit " + notification.getBuildStatusResource().getCommitId() + " to BitBucket is done!");
+                }
+            }
+
+            public void onFailure(Throwable t) {
+                if (!entry.superseded) {
+                    logger.log(Level.INFO, "Bitbucket notification failed: " + t.getMessage(), t);
+                    report(notification, "Sending build status " + notification.getBuildStatus().getState() +
+                            " for commit " + notification.getBuildStatusResource().getCommitId() +
+                            " to BitBucket failed: " + t.getMessage());
+                }
+            }
+        });
+
+        return entry.handle;
+    }
+
+    private void enqueue(final String statusKey) {
+        RejectedExecutionException rejected = null;
+        if (this.queued.incrementAndGet() > this.queueSize) {
+            this.queued.decrementAndGet();
+            rejected = new RejectedExecutionException("Bitbucket notification queue is full (" +
+                    this.queueSize + " pending notifications)");
+        } else {
+            try {
+                this.lane(statusKey).execute(new LaneTask(statusKey) {
+                    public void run() {
+                        queued.decrementAndGet();
+                        PendingNotification entry = pending.remove(statusKey);
+                        if (entry != null) {
+                            deliver(entry);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                this.queued.decrementAndGet();
+                rejected = e;
+            }
+        }
+
+        if (rejected != null) {
+            PendingNotification entry = this.pending.remove(statusKey);
+            if (entry != null) {
+                BitbucketNotificationMetrics.get().failed();
+                record(entry.notification, BitbucketNotificationEvent.FAILED, 0, 0, entry.attempts, rejected.getMessage());
+                entry.handle.setException(rejected);
+            }
+        }
+    }
+
+    // runs on the lane of the notification, no other status of the same commit and key is sent meanwhile
+    private void deliver(final PendingNotification entry) {
+        // an older status still waiting for a retry would overwrite this one once it is sent
+        PendingNotification older = this.waiting.remove(entry.notification.getStatusKey());
+        if (older != null && older != entry) {
+            older.supersede(entry);
+        }
+
+        final BitbucketCircuitBreaker circuitBreaker = BitbucketCircuitBreaker.get();
+        final String circuit = BitbucketCircuitBreaker.key(entry.notification);
+        long open = circuitBreaker.acquire(circuit, new Runnable() {
+            public void run() {
+                // the probe of the circuit has an outcome, ask again
+                requeue(entry);
+            }
+        });
+        if (open == BitbucketCircuitBreaker.PROBING) {
+            // the waiter goes through the lane, so it finds the entry parked even if the probe ends right now
+            this.deferred(entry);
+            this.park(entry);
+            return;
+        }
+        if (open > 0 && this.outlivesShutdown(open)) {
+            this.abandon(entry, "the circuit of " + circuit + " is open");
+            return;
+        }
+        if (open > 0) {
+            // fail fast while the host is down, the notification stays pending until it recovers
+            this.deferred(entry);
+            circuitBreaker.deferred(circuit);
+            this.park(entry);
+            Timer.get().schedule(new Runnable() {
+                public void run() {
+                    circuitBreaker.resumed(circuit);
+                    requeue(entry);
+                }
+            }, open, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        if (entry.rateReservedAt == 0) {
+            // the token is reserved when the notification first asks, those asking later queue up behind it
+            entry.rateReservedAt = System.currentTimeMillis() + BitbucketRateLimiter.get().acquire(
+                    entry.notification.getCredentialsId(), entry.notification.getBuildStatusResource().getOwner());
+        }
+        long wait = entry.rateReservedAt - System.currentTimeMillis();
+        if (wait > 0 && this.outlivesShutdown(wait)) {
+            this.abandon(entry, "the rate limit is exceeded");
+            return;
+        }
+        if (wait > 0) {
+            // over the rate limit: wait on the timer and queue up again, newer statuses still replace this one
+            this.park(entry);
+            Timer.get().schedule(new Runnable() {
+                public void run() {
+                    requeue(entry);
+                }
+            }, wait, TimeUnit.MILLISECONDS);
+            return;
+        }
+        // a retry takes another token
+        entry.rateReservedAt = 0;
+
+        if (entry.durable != null) {
+            try {
+                // the notification has to be on disk before it is sent, see BitbucketNotificationJournal
+                entry.durable.get();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Bitbucket notification could not be journaled, sending it anyway", e);
+            }
+        }
+        entry.attempts++;
+        long started = System.currentTimeMillis();
+        try {
+            BitbucketNotificationResult result;
+            try {
+                result = this.sender.send(entry.notification);
+            } catch (Throwable t) {
+                circuitBreaker.failed(circuit, t);
+                throw t;
+            }
+            circuitBreaker.succeeded(circuit);
+            this.lastSent.sent(entry.notification);
+            BitbucketNotificationMetrics.get().succeeded(entry.notification.getCreatedAt());
+            record(entry.notification, BitbucketNotificationEvent.SENT, result.getResponseCode(),
+                    System.currentTimeMillis() - started, entry.attempts, null);
+            entry.handle.set(result);
+        } catch (Throwable t) {
+            this.failed(entry, t, System.currentTimeMillis() - started);
+        }
+    }
+
+    private void failed(final PendingNotification entry, Throwable t, long latency) {
+        int responseCode = t instanceof BitbucketNotificationException
+                ? ((BitbucketNotificationException) t).getResponseCode() : 0;
+        BitbucketRetryPolicy retryPolicy = this.retryPolicy;
+        if (!retryPolicy.shouldRetry(t, entry.attempts)) {
+            BitbucketNotificationMetrics.get().failed();
+            record(entry.notification, BitbucketNotificationEvent.FAILED, responseCode, latency, entry.attempts, t.getMessage());
+            entry.handle.setException(t);
+            return;
+        }
+        // retries are scheduled on the timer, no thread waits for the backoff to elapse
+        long delay = retryPolicy.getDelayMillis(t, entry.attempts);
+        if (this.outlivesShutdown(delay)) {
+            this.abandon(entry, t.getMessage());
+            return;
+        }
+        BitbucketNotificationMetrics.get().retried();
+        record(entry.notification, BitbucketNotificationEvent.RETRYING, responseCode, latency, entry.attempts, t.getMessage());
+
+        report(entry.notification, "Sending build status " + entry.notification.getBuildStatus().getState() +
+                " for commit " + entry.notification.getBuildStatusResource().getCommitId() + " to BitBucket failed: " +
+                t.getMessage() + ", retrying in " + TimeUnit.MILLISECONDS.toSeconds(delay) + " seconds");
+        this.park(entry);
+        Timer.get().schedule(new Runnable() {
+            public void run() {
+                requeue(entry);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // stops taking new notifications and sends the queued ones until the timeout elapses,
+    // returns the notifications which were not delivered by then
+    public List<String> shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        this.closed = true;
+        this.drainDeadline = System.currentTimeMillis() + unit.toMillis(timeout);
+
+        // every lane gets a thread, the configured count is sized for steady traffic, not for a flush
+        this.executor.setMaximumPoolSize(Math.max(LANES, this.executor.getMaximumPoolSize()));
+        this.executor.setCorePoolSize(LANES);
+        // there is no time left to back off, what is waiting for a retry is sent right away
+        for (PendingNotification entry : this.waiting.values()) {
+            this.requeue(entry);
+        }
+
+        synchronized (this.drained) {
+            long remaining;
+            while ((remaining = this.drainDeadline - System.currentTimeMillis()) > 0 && this.getBacklog() > 0) {
+                this.drained.wait(remaining);
+            }
+        }
+
+        Map<String, String> undelivered = new LinkedHashMap<String, String>();
+        for (PendingNotification entry : this.abandoned) {
+            undelivered.put(entry.notification.getStatusKey(), entry.notification.getBuildStatus().getState());
+        }
+        for (PendingNotification entry : this.waiting.values()) {
+            undelivered.put(entry.notification.getStatusKey(), entry.notification.getBuildStatus().getState());
+        }
+        for (PendingNotification entry : this.pending.values()) {
+            undelivered.put(entry.notification.getStatusKey(), entry.notification.getBuildStatus().getState());
+        }
+        for (LaneBacklog lane : this.getBusyLanes()) {
+            for (String statusKey : lane.getStatusKeys()) {
+                if (!undelivered.containsKey(statusKey)) {
+                    undelivered.put(statusKey, "still sending");
+                }
+            }
+        }
+
+        List<String> report = new ArrayList<String>();
+        for (Map.Entry<String, String> entry : undelivered.entrySet()) {
+            report.add(entry.getKey() + " (" + entry.getValue() + ")");
+        }
+
+        return report;
+    }
+
+    private int getBacklog() {
+        int backlog = this.waiting.size();
+        for (Lane lane : this.lanes) {
+            backlog += lane.getBacklog();
+        }
+
+        return backlog;
+    }
+
+    // called by a lane after its task, the backlog only shrinks when a task of some lane ends
+    private void laneDone() {
+        if (this.closed && this.getBacklog() == 0) {
+            synchronized (this.drained) {
+                this.drained.notifyAll();
+            }
+        }
+    }
+
+    private boolean outlivesShutdown(long delay) {
+        long deadline = this.drainDeadline;
+        return deadline != 0 && System.currentTimeMillis() + delay > deadline;
+    }
+
+    // fails the notification with a retryable error, so the journal sends it again after the restart
+    private void abandon(PendingNotification entry, String reason) {
+        this.abandoned.add(entry);
+        record(entry.notification, BitbucketNotificationEvent.FAILED, 0, 0, entry.attempts,
+                "not sent before the shutdown: " + reason);
+        entry.handle.setException(new IOException("Jenkins is shutting down, not sent because " + reason));
+    }
+
+    private void deferred(PendingNotification entry) {
+        if (!entry.deferred) {
+            entry.deferred = true;
+            record(entry.notification, BitbucketNotificationEvent.DEFERRED, 0, 0, entry.attempts, "circuit open");
+            report(entry.notification, "Bitbucket is not responding, build status " +
+                    entry.notification.getBuildStatus().getState() + " for commit " +
+                    entry.notification.getBuildStatusResource().getCommitId() + " will be sent once it recovers");
+        }
+    }
+
+    private void park(PendingNotification entry) {
+        this.waiting.put(entry.notification.getStatusKey(), entry);
+    }
+
+    private void requeue(final PendingNotification entry) {
+        final String statusKey = entry.notification.getStatusKey();
+        // the notification was admitted already, the queue limit does not apply to it
+        this.queued.incrementAndGet();
+        try {
+            // through the lane, so that it can not overtake a newer status of the same commit being sent
+            this.lane(statusKey).execute(new LaneTask(statusKey) {
+                public void run() {
+                    queued.decrementAndGet();
+                    if (!waiting.remove(statusKey, entry)) {
+                        // a newer status was sent meanwhile and took this one over
+                        return;
+                    }
+                    PendingNotification newer = pending.get(statusKey);
+                    if (newer != null) {
+                        // a newer status was submitted while this one was waiting, sending the old one again is pointless
+                        entry.supersede(newer);
+                    } else {
+                        deliver(entry);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.queued.decrementAndGet();
+            if (this.waiting.remove(statusKey, entry)) {
+                BitbucketNotificationMetrics.get().failed();
+                record(entry.notification, BitbucketNotificationEvent.FAILED, 0, 0, entry.attempts, e.getMessage());
+                entry.handle.setException(e);
+            }
+        }
+    }
+
+    private Lane lane(String statusKey) {
+        // the status key covers the owner, repository, commit and build key
+        return this.lanes[(statusKey.hashCode() & Integer.MAX_VALUE) % LANES];
+    }
+
+    private static void record(BitbucketNotification notification, String outcome, int responseCode, long latency,
+                               int attempts, String message) {
+        BitbucketNotificationEvents.get().record(notification.getBuildStatusResource(), notification.getBuildStatus(),
+                outcome, responseCode, latency, attempts, message);
+    }
+
+    private static void report(BitbucketNotification notification, String message) {
+        TaskListener listener = notification.getListener();
+        if (listener != null) {
+            // the build may have finished already, in which case the message is dropped by the closed log
+            listener.getLogger().println(message);
+        }
+    }
+
+    private abstract static class LaneTask implements Runnable {
+        private final String statusKey;
+
+        LaneTask(String statusKey) {
+            this.statusKey = statusKey;
+        }
+    }
+
+    // a serial executor on top of the shared pool: the tasks of a lane run one after the other,
+    // the lanes themselves run in parallel on as many threads as configured
+    private final class Lane implements Runnable {
+        private final int index;
+        private final LinkedList<LaneTask> tasks = new LinkedList<LaneTask>();
+        private LaneTask running;
+        private boolean scheduled;
+
+        Lane(int index) {
+            this.index = index;
+        }
+
+        synchronized void execute(LaneTask task) {
+            if (!this.scheduled) {
+                executor.execute(this);
+                this.scheduled = true;
+            }
+            this.tasks.add(task);
+        }
+
+        public void run() {
+            LaneTask task;
+            synchronized (this) {
+                task = this.tasks.poll();
+                this.running = task;
+            }
+            try {
+                if (task != null) {
+                    task.run();
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Bitbucket notification of " + task.statusKey + " failed unexpectedly", e);
+            } finally {
+                synchronized (this) {
+                    this.running = null;
+                    this.scheduled = false;
+                    if (!this.tasks.isEmpty()) {
+                        // one task at a time, a busy lane must not keep a thread from the others
+                        try {
+                            executor.execute(this);
+                            this.scheduled = true;
+                        } catch (RejectedExecutionException e) {
+                            logger.log(Level.WARNING, "Bitbucket notification lane " + this.index + " stopped with " +
+                                    this.tasks.size() + " tasks left", e);
+                        }
+                    }
+                }
+                // outside of the lane lock, the backlog takes the lock of every lane
+                laneDone();
+            }
+        }
+
+        synchronized int getBacklog() {
+            return this.tasks.size() + (this.running == null ? 0 : 1);
+        }
+
+        synchronized LaneBacklog snapshot() {
+            List<String> statusKeys = new ArrayList<String>();
+            if (this.running != null) {
+                statusKeys.add(this.running.statusKey);
+            }
+            for (LaneTask task : this.tasks) {
+                statusKeys.add(task.statusKey);
+            }
+
+            return new LaneBacklog(this.index, statusKeys);
+        }
+    }
+
+    public static class LaneBacklog {
+        private final int lane;
+        private final List<String> statusKeys;
+
+        LaneBacklog(int lane, List<String> statusKeys) {
+            this.lane = lane;
+            this.statusKeys = statusKeys;
+        }
+
+        public int getLane() {
+            return this.lane;
+        }
+
+        public int getBacklog() {
+            return this.statusKeys.size();
+        }
+
+        // running first, then in the order they will be sent
+        public List<String> getStatusKeys() {
+            return this.statusKeys;
+        }
+    }
+
+    private static class PendingNotification {
+        private final BitbucketNotification notification;
+        private final SettableFuture<BitbucketNotificationResult> handle = SettableFuture.create();
+        private volatile boolean superseded;
+        private boolean deferred;
+        // when the token reserved from the rate limiter may be used, 0 if none was reserved
+        private volatile long rateReservedAt;
+
+        private ListenableFuture<Void> durable;
+        private int attempts;
+
+        PendingNotification(BitbucketNotification notification) {
+            this.notification = notification;
+        }
+
+        void journaled(final BitbucketNotificationJournal journal, final long journalId, boolean append) {
+            if (append) {
+                this.durable = journal.append(BitbucketNotificationJournal.Entry.from(journalId, this.notification));
+            }
+            Futures.addCallback(this.handle, new FutureCallback<BitbucketNotificationResult>() {
+                public void onSuccess(BitbucketNotificationResult result) {
+                    journal.acknowledge(journalId);
+                }
+
+                public void onFailure(Throwable t) {
+                    // transient failures are kept in the journal and sent again after a restart
+                    if (!BitbucketRetryPolicy.isRetryable(t)) {
+                        journal.acknowledge(journalId);
+                    }
+                }
+            });
+        }
+
+        // completes this handle with the outcome of the notification which replaced it
+        void supersede(PendingNotification newer) {
+            this.superseded = true;
+            // the newer notification takes over the place in the rate limiter queue
+            if (newer.rateReservedAt == 0) {
+                newer.rateReservedAt = this.rateReservedAt;
+            }
+            report(this.notification, "Build status " + this.notification.getBuildStatus().getState() +
+                    " for commit " + this.notification.getBuildStatusResource().getCommitId() +
+                    " was superseded by " + newer.notification.getBuildStatus().getState() + " before it was sent");
+            Futures.addCallback(newer.handle, new FutureCallback<BitbucketNotificationResult>() {
+                public void onSuccess(BitbucketNotificationResult result) {
+                    handle.set(result);
+                }
+
+                public void onFailure(Throwable t) {
+                    handle.setException(t);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.notification;
+
+public class BitbucketNotificationException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int responseCode;
+    private final String retryAfter;
+
+    public BitbucketNotificationException(String message, int responseCode, String retryAfter) {
+        super(message);
+        this.responseCode = responseCode;
+        this.retryAfter = retryAfter;
+    }
+
+    public int getResponseCode() {
+        return this.responseCode;
+    }
+
+    public String getRetryAfter() {
+        return this.retryAfter;
+    }
+
+    // rate limited and server side errors are worth trying again, any other client error is not
+    public boolean isRetryable() {
+        return this.responseCode == 429 || this.responseCode >= 500;
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusResource;
+
+/**
+ * Append-only journal of notifications which were not confirmed by Bitbucket yet.
+ *
+ * Every record is a JSON line, either a pending notification or the acknowledgement of one. Records are written by
+ * a single thread which commits all records queued in the meantime with one fsync, so the cost of syncing is shared
+ * by every notification submitted while the previous batch was written.
+ */
+public class BitbucketNotificationJournal {
+    private static final Logger logger = Logger.getLogger(BitbucketNotificationJournal.class.getName());
+
+    private static final String PENDING = "P";
+    private static final String ACKNOWLEDGED = "A";
+
+    // maximum number of records committed with a single fsync
+    private static final int MAX_BATCH = 1000;
+    // rewrite the journal once this many notifications were acknowledged since the last rewrite
+    static final int COMPACT_AFTER_ACKS = 10000;
+    private static final long COMPACT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    // a status this old is not worth sending anymore, it goes to the dead letter file instead
+    static final long MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    private static final Gson gson = new Gson();
+
+    private final File file;
+    private final AtomicLong nextId = new AtomicLong();
+    private final BlockingQueue<Write> writes = new LinkedBlockingQueue<Write>();
+    private final List<Entry> recovered = new ArrayList<Entry>();
+    private final Thread writerThread;
+    private volatile boolean closed;
+
+    // only accessed by the writer thread once the journal is open
+    private final Map<Long, String> pending = new LinkedHashMap<Long, String>();
+    private FileOutputStream out;
+    private Writer writer;
+    private int acksSinceCompaction;
+    private long lastCompaction;
+    private boolean compactionFailed;
+
+    private BitbucketNotificationJournal(File file) {
+        this.file = file;
+        this.writerThread = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "Bitbucket build status notifier journal");
+        this.writerThread.setDaemon(true);
+    }
+
+    public static BitbucketNotificationJournal open(File file) throws IOException {
+        BitbucketNotificationJournal journal = new BitbucketNotificationJournal(file);
+        journal.recover();
+        journal.compact();
+        journal.writerThread.start();
+
+        return journal;
+    }
+
+    // notifications which were still pending when the journal was opened
+    public List<Entry> getRecoveredEntries() {
+        return Collections.unmodifiableList(this.recovered);
+    }
+
+    public long nextId() {
+        return this.nextId.incrementAndGet();
+    }
+
+    // the returned future completes once the record is on disk
+    public ListenableFuture<Void> append(Entry entry) {
+        entry.op = PENDING;
+        return this.enqueue(new Write(entry.id, PENDING, gson.toJson(entry)));
+    }
+
+    public void acknowledge(long id) {
+        Entry ack = new Entry();
+        ack.op = ACKNOWLEDGED;
+        ack.id = id;
+        this.enqueue(new Write(id, ACKNOWLEDGED, gson.toJson(ack)));
+    }
+
+    // every record appended before is written and synced with the last batch
+    public void close(long timeout, TimeUnit unit) throws InterruptedException {
+        synchronized (this.writes) {
+            this.closed = true;
+            this.writes.add(Write.CLOSE);
+        }
+        this.writerThread.join(unit.toMillis(timeout));
+    }
+
+    private ListenableFuture<Void> enqueue(Write write) {
+        // a record queued behind the close would never be written nor completed
+        synchronized (this.writes) {
+            if (this.closed) {
+                return Futures.immediateFailedFuture(new IOException("Bitbucket notification journal is closed"));
+            }
+            this.writes.add(write);
+        }
+
+        return write.durable;
+    }
+
+    private void recover() throws IOException {
+        if (!this.file.exists()) {
+            return;
+        }
+
+        Map<Long, Entry> entries = new LinkedHashMap<Long, Entry>();
+        long maxId = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry entry;
+                try {
+                    entry = gson.fromJson(line, Entry.class);
+                } catch (JsonParseException e) {
+                    // a record torn by a crash while it was written, everything before it is intact
+                    logger.log(Level.WARNING, "Skipping unreadable record in " + this.file);
+                    continue;
+                }
+                if (entry == null) {
+                    continue;
+                }
+                maxId = Math.max(maxId, entry.id);
+                if (PENDING.equals(entry.op)) {
+                    entries.put(entry.id, entry);
+                } else if (ACKNOWLEDGED.equals(entry.op)) {
+                    entries.remove(entry.id);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        this.nextId.set(maxId);
+        long now = System.currentTimeMillis();
+        List<Entry> expired = new ArrayList<Entry>();
+        for (Entry entry : entries.values()) {
+            if (entry.createdAt == 0) {
+                // written by an older version, it ages from now on
+                entry.createdAt = now;
+            }
+            if (now - entry.createdAt > MAX_AGE_MILLIS) {
+                expired.add(entry);
+                continue;
+            }
+            this.recovered.add(entry);
+            this.pending.put(entry.id, gson.toJson(entry));
+        }
+        if (!expired.isEmpty()) {
+            this.deadLetter(expired);
+        }
+    }
+
+    // keeps expired notifications next to the journal for inspection, the compaction drops them from the journal
+    private void deadLetter(List<Entry> expired) throws IOException {
+        File deadLetters = getDeadLetterFile(this.file);
+        logger.warning(expired.size() + " Bitbucket notifications were pending for more than " +
+                TimeUnit.MILLISECONDS.toHours(MAX_AGE_MILLIS) + " hours and are not sent anymore, see " + deadLetters);
+
+        Writer deadLetterWriter = new OutputStreamWriter(new FileOutputStream(deadLetters, true), "UTF-8");
+        try {
+            for (Entry entry : expired) {
+                deadLetterWriter.write(gson.toJson(entry));
+                deadLetterWriter.write('\n');
+            }
+        } finally {
+            deadLetterWriter.close();
+        }
+    }
+
+    static File getDeadLetterFile(File journal) {
+        return new File(journal.getPath() + ".dead");
+    }
+
+    private void writeLoop() {
+        List<Write> batch = new ArrayList<Write>();
+        boolean closing = false;
+        while (!closing) {
+            try {
+                Write first = this.writes.poll(1, TimeUnit.MINUTES);
+                if (first != null) {
+                    batch.add(first);
+                    this.writes.drainTo(batch, MAX_BATCH - 1);
+                }
+            } catch (InterruptedException e) {
+                closing = true;
+            }
+
+            try {
+                for (Write write : batch) {
+                    if (write == Write.CLOSE) {
+                        closing = true;
+                        continue;
+                    }
+                    if (PENDING.equals(write.op)) {
+                        this.pending.put(write.id, write.line);
+                    } else if (this.pending.remove(write.id) != null) {
+                        this.acksSinceCompaction++;
+                    }
+                    this.writer.write(write.line);
+                    this.writer.write('\n');
+                }
+                if (!batch.isEmpty()) {
+                    this.writer.flush();
+                    this.out.getChannel().force(false);
+                }
+                for (Write write : batch) {
+                    write.durable.set(null);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not write to " + this.file, e);
+                for (Write write : batch) {
+                    write.durable.setException(e);
+                }
+            }
+            batch.clear();
+
+            boolean intervalElapsed = System.currentTimeMillis() - this.lastCompaction >= COMPACT_INTERVAL_MILLIS;
+            boolean due = this.acksSinceCompaction >= COMPACT_AFTER_ACKS || (this.acksSinceCompaction > 0 && intervalElapsed);
+            // a compaction which failed is not tried again with every batch
+            if (closing || due && (!this.compactionFailed || intervalElapsed)) {
+                try {
+                    this.compact();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Could not compact " + this.file, e);
+                }
+            }
+        }
+
+        try {
+            this.writer.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Could not close " + this.file, e);
+        }
+
+        // records which raced with close, nobody will write them anymore
+        IOException closedException = new IOException("Bitbucket notification journal is closed");
+        for (Write write : this.writes) {
+            write.durable.setException(closedException);
+        }
+    }
+
+    // rewrites the journal with the pending records only, the old journal is replaced atomically
+    private void compact() throws IOException {
+        this.lastCompaction = System.currentTimeMillis();
+        this.compactionFailed = true;
+        File parent = this.file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+
+        // the current journal stays open for appends until the compacted one is complete
+        File compacted = new File(this.file.getPath() + ".tmp");
+        FileOutputStream compactedOut = new FileOutputStream(compacted);
+        try {
+            Writer compactedWriter = new OutputStreamWriter(compactedOut, "UTF-8");
+            this.writePending(compactedWriter, compactedOut);
+        } finally {
+            compactedOut.close();
+        }
+
+        boolean replaced = false;
+        try {
+            if (this.writer != null) {
+                this.writer.close();
+            }
+            if (!compacted.renameTo(this.file)) {
+                // renameTo does not replace existing files on every platform
+                if (!this.file.delete() || !compacted.renameTo(this.file)) {
+                    throw new IOException("Could not replace " + this.file);
+                }
+            }
+            replaced = true;
+        } finally {
+            // whatever went wrong the journal has to take records again, the old one is still in place unless it
+            // was deleted without the compacted one taking its place
+            this.out = new FileOutputStream(this.file, true);
+            this.writer = new OutputStreamWriter(this.out, "UTF-8");
+            if (!replaced && this.file.length() == 0) {
+                this.writePending(this.writer, this.out);
+            }
+        }
+
+        this.acksSinceCompaction = 0;
+        this.compactionFailed = false;
+    }
+
+    private void writePending(Writer writer, FileOutputStream out) throws IOException {
+        for (String line : this.pending.values()) {
+            writer.write(line);
+            writer.write('\n');
+        }
+        writer.flush();
+        out.getChannel().force(false);
+    }
+
+    private static class Write {
+        private static final Write CLOSE = new Write(0, null, null);
+
+        private final long id;
+        private final String op;
+        private final String line;
+        private final SettableFuture<Void> durable = SettableFuture.create();
+
+        Write(long id, String op, String line) {
+            this.id = id;
+            this.op = op;
+            this.line = line;
+        }
+    }
+
+    public static class Entry {
+        private String op;
+        private long id;
+        private long createdAt;
+        private String credentialsId;
+        private String jobName;
+        private String owner;
+        private String repoSlug;
+        private String commitId;
+        private String host;
+        private String state;
+        private String key;
+        private String url;
+        private String name;
+        private String description;
+
+        public static Entry from(long id, BitbucketNotification notification) {
+            BitbucketBuildStatusResource resource = notification.getBuildStatusResource();
+            BitbucketBuildStatus status = notification.getBuildStatus();
+
+            Entry entry = new Entry();
+            entry.id = id;
+            entry.createdAt = notification.getCreatedAt();
+            entry.credentialsId = notification.getCredentialsId();
+            entry.jobName = notification.getJobName();
+            entry.owner = resource.getOwner();
+            entry.repoSlug = resource.getRepoSlug();
+            entry.commitId = resource.getCommitId();
+            entry.host = resource.getHost();
+            entry.state = status.getState();
+            entry.key = status.getKey();
+            entry.url = status.getUrl();
+            entry.name = status.getName();
+            entry.description = status.getDescription();
+
+            return entry;
+        }
+
+        public long getId() {
+            return this.id;
+        }
+
+        public long getCreatedAt() {
+            return this.createdAt;
+        }
+
+        public String getCredentialsId() {
+            return this.credentialsId;
+        }
+
+        public String getJobName() {
+            return this.jobName;
+        }
+
+        public BitbucketBuildStatusResource getBuildStatusResource() {
+            return new BitbucketBuildStatusResource(this.owner, this.repoSlug, this.commitId, this.host);
+        }
+
+        public BitbucketBuildStatus getBuildStatus() {
+            return new BitbucketBuildStatus(this.state, this.key, this.url, this.name, this.description);
+        }
+    }
+}
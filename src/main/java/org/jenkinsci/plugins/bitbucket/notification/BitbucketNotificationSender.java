@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.jenkinsci.plugins.bitbucket.api.BitbucketApi;
+import org.jenkinsci.plugins.bitbucket.api.BitbucketApiService;
+import org.jenkinsci.plugins.bitbucket.api.BitbucketEndpoint;
+import org.jenkinsci.plugins.bitbucket.api.BitbucketHttpRequest;
+import org.jenkinsci.plugins.bitbucket.api.BitbucketHttpResponse;
+import org.jenkinsci.plugins.bitbucket.api.BitbucketTokenCache;
+import org.jenkinsci.plugins.bitbucket.api.BitbucketTransport;
+import org.jenkinsci.plugins.bitbucket.metrics.BitbucketNotificationMetrics;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusResource;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusSerializer;
+import org.scribe.model.OAuthConfig;
+import org.scribe.model.Token;
+import org.scribe.model.Verb;
+
+public class BitbucketNotificationSender {
+    private static final Logger logger = Logger.getLogger(BitbucketNotificationSender.class.getName());
+
+    // every n-th payload is logged at INFO, 0 logs them at FINE only
+    private static volatile int payloadLogSampling;
+    private static final AtomicLong sent = new AtomicLong();
+
+    public static void setPayloadLogSampling(int payloadLogSampling) {
+        BitbucketNotificationSender.payloadLogSampling = Math.max(payloadLogSampling, 0);
+    }
+
+    public static BitbucketNotificationResult send(final BitbucketNotification notification) throws Exception {
+        UsernamePasswordCredentials credentials = notification.getCredentials();
+        if (credentials == null) {
+            throw new Exception("Credentials could not be found!");
+        }
+
+        BitbucketBuildStatusResource buildStatusResource = notification.getBuildStatusResource();
+        BitbucketBuildStatus buildStatus = notification.getBuildStatus();
+        String credentialsId = notification.getCredentialsId();
+
+        byte[] payload = BitbucketBuildStatusSerializer.toJsonBytes(buildStatus);
+        BitbucketHttpRequest request = new BitbucketHttpRequest(Verb.POST.name(), buildStatusResource.generateUrl(Verb.POST));
+        request.addHeader("Content-type", "application/json");
+        request.setBody(payload);
+        BitbucketHttpResponse response = execute(request, credentials, credentialsId, buildStatusResource,
+                BitbucketNotificationMetrics.STATUS_POST);
+
+        int sampling = payloadLogSampling;
+        Level payloadLevel = sampling > 0 && sent.incrementAndGet() % sampling == 0 ? Level.INFO : Level.FINE;
+        if (logger.isLoggable(payloadLevel)) {
+            logger.log(payloadLevel, "This request was sent: " + new String(payload, "UTF-8"));
+            logger.log(payloadLevel, "This response was received: " + response.getBody());
+        }
+
+        int responseCode = response.getCode();
+        if (!response.isSuccessful()) {
+            throw new BitbucketNotificationException("Bitbucket responded with HTTP " + responseCode,
+                    responseCode, response.getHeader("Retry-After"));
+        }
+
+        return new BitbucketNotificationResult(responseCode);
+    }
+
+    // reads one page of the statuses bitbucket shows for the commit, pageUrl is null for the first one
+    public static StatusPage fetchStatuses(UsernamePasswordCredentials credentials, String credentialsId,
+                                           BitbucketBuildStatusResource buildStatusResource, String pageUrl) throws Exception {
+        if (credentials == null) {
+            throw new Exception("Credentials could not be found!");
+        }
+
+        String url = pageUrl != null ? pageUrl : buildStatusResource.generateUrl(Verb.GET);
+        BitbucketHttpRequest request = new BitbucketHttpRequest(Verb.GET.name(), url);
+        BitbucketHttpResponse response = execute(request, credentials, credentialsId, buildStatusResource,
+                BitbucketNotificationMetrics.STATUS_READ);
+        if (!response.isSuccessful()) {
+            throw new BitbucketNotificationException("Bitbucket responded with HTTP " + response.getCode(),
+                    response.getCode(), response.getHeader("Retry-After"));
+        }
+
+        return StatusPage.parse(response.getBody(), url);
+    }
+
+    private static BitbucketHttpResponse execute(BitbucketHttpRequest request, UsernamePasswordCredentials credentials,
+                                                 String credentialsId, BitbucketBuildStatusResource buildStatusResource,
+                                                 String operation) throws Exception {
+        BitbucketEndpoint endpoint = BitbucketEndpoint.forResource(buildStatusResource);
+        OAuthConfig config = BitbucketTokenCache.get().getConfig(credentials);
+        BitbucketApiService apiService = (BitbucketApiService) new BitbucketApi(endpoint.getOauthUrl()).createService(config);
+
+        if (endpoint.isDataCenter()) {
+            apiService.signRequestBasic(request);
+            return execute(request, credentialsId, buildStatusResource, operation);
+        }
+
+        Token token = BitbucketTokenCache.get().getAccessToken(credentialsId, config, endpoint.getOauthUrl());
+        apiService.signRequest(token, request);
+        BitbucketHttpResponse response = execute(request, credentialsId, buildStatusResource, operation);
+        if (response.getCode() == 401) {
+            // the token was revoked before it expired, try once more with a new one
+            BitbucketTokenCache.get().invalidate(credentialsId, config, endpoint.getOauthUrl(), token);
+            token = BitbucketTokenCache.get().getAccessToken(credentialsId, config, endpoint.getOauthUrl());
+            apiService.signRequest(token, request);
+            response = execute(request, credentialsId, buildStatusResource, operation);
+        }
+
+        return response;
+    }
+
+    private static BitbucketHttpResponse execute(BitbucketHttpRequest request, String credentialsId,
+                                                 BitbucketBuildStatusResource buildStatusResource,
+                                                 String operation) throws IOException {
+        BitbucketNotificationMetrics metrics = BitbucketNotificationMetrics.get();
+        long started = System.currentTimeMillis();
+        BitbucketHttpResponse response;
+        try {
+            response = BitbucketTransport.get().execute(request);
+        } catch (IOException e) {
+            metrics.request(operation, buildStatusResource.getOwner(), BitbucketNotificationMetrics.IO_ERROR,
+                    System.currentTimeMillis() - started);
+            throw e;
+        }
+        metrics.request(operation, buildStatusResource.getOwner(), String.valueOf(response.getCode()),
+                System.currentTimeMillis() - started);
+        BitbucketRateLimiter.get().update(credentialsId, buildStatusResource.getOwner(), response.getHeaders());
+
+        return response;
+    }
+
+    public static class StatusPage {
+        private final List<BitbucketBuildStatus> statuses;
+        private final String next;
+
+        StatusPage(List<BitbucketBuildStatus> statuses, String next) {
+            this.statuses = statuses;
+            this.next = next;
+        }
+
+        // bitbucket cloud links the next page, data center tells where it starts
+        static StatusPage parse(String body, String url) {
+            JSONObject json = JSONObject.fromObject(body);
+            List<BitbucketBuildStatus> statuses = new ArrayList<BitbucketBuildStatus>();
+            JSONArray values = json.optJSONArray("values");
+            if (values != null) {
+                for (int i = 0; i < values.size(); i++) {
+                    JSONObject value = values.getJSONObject(i);
+                    statuses.add(new BitbucketBuildStatus(value.optString("state"), value.optString("key"),
+                            value.optString("url"), value.optString("name"), value.optString("description")));
+                }
+            }
+
+            String next = json.optString("next", null);
+            if (next == null && json.has("isLastPage") && !json.optBoolean("isLastPage", true)) {
+                int query = url.indexOf('?');
+                next = (query < 0 ? url : url.substring(0, query)) + "?start=" + json.optInt("nextPageStart");
+            }
+
+            return new StatusPage(statuses, next);
+        }
+
+        public BitbucketBuildStatus find(String key) {
+            for (BitbucketBuildStatus status : this.statuses) {
+                if (status.getKey().equals(key)) {
+                    return status;
+                }
+            }
+
+            return null;
+        }
+
+        // null on the last page
+        public String getNext() {
+            return this.next;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token buckets per credentials and per Bitbucket workspace.
+ *
+ * Every notification takes a token from both the bucket of its credentials and the bucket of its workspace.
+ * Buckets refill at the configured hourly rate and hold at most the configured burst. The rate limit headers of
+ * Bitbucket responses shrink a bucket when Bitbucket knows better than the configuration.
+ *
+ * A notification which has to wait reserves its token right away, the bucket goes into debt. Later notifications
+ * queue up behind the debt, so they are served in the order they asked and no workspace starves because others
+ * happen to ask again at the right moment.
+ */
+public class BitbucketRateLimiter {
+
+    // bitbucket cloud allows 1000 requests per hour for most of the repository endpoints
+    public static final int DEFAULT_RATE = 1000;
+    public static final int DEFAULT_BURST = 100;
+
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    // full buckets which were not used for this long are dropped, a new one starts out the same
+    private static final long IDLE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long SWEEP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final BitbucketRateLimiter INSTANCE = new BitbucketRateLimiter();
+
+    private final Map<String, Bucket> buckets = new HashMap<String, Bucket>();
+    private int ratePerHour = DEFAULT_RATE;
+    private int burst = DEFAULT_BURST;
+    private long lastSweep;
+
+    BitbucketRateLimiter() {
+    }
+
+    public static BitbucketRateLimiter get() {
+        return INSTANCE;
+    }
+
+    // a rate of zero disables rate limiting
+    public void configure(int ratePerHour, int burst) {
+        this.configure(ratePerHour, burst, System.currentTimeMillis());
+    }
+
+    // the configuration is saved far more often than it changes: the buckets keep their debt and what bitbucket
+    // told about its limits, only their rate and burst follow the new configuration
+    synchronized void configure(int ratePerHour, int burst, long now) {
+        ratePerHour = Math.max(0, ratePerHour);
+        burst = burst > 0 ? burst : DEFAULT_BURST;
+        if (ratePerHour == this.ratePerHour && burst == this.burst) {
+            return;
+        }
+        this.ratePerHour = ratePerHour;
+        this.burst = burst;
+
+        if (ratePerHour == 0) {
+            this.buckets.clear();
+            return;
+        }
+        for (Bucket bucket : this.buckets.values()) {
+            // what was refilled so far was refilled at the old rate
+            bucket.refill(now);
+            bucket.capacity = burst;
+            bucket.tokens = Math.min(bucket.tokens, burst);
+            bucket.ratePerMilli = this.rate(bucket.limit);
+        }
+    }
+
+    // takes a token from both buckets and returns how long to wait until it may be used, 0 if right away
+    public long acquire(String credentialsId, String workspace) {
+        return this.acquire(credentialsId, workspace, System.currentTimeMillis());
+    }
+
+    synchronized long acquire(String credentialsId, String workspace, long now) {
+        if (this.ratePerHour == 0) {
+            return 0;
+        }
+
+        this.sweep(now);
+        Bucket credentialsBucket = this.bucket(credentialsKey(credentialsId), now);
+        Bucket workspaceBucket = this.bucket(workspaceKey(workspace), now);
+
+        return Math.max(credentialsBucket.take(now), workspaceBucket.take(now));
+    }
+
+    // takes a token from both buckets only if both have one now, background work never queues up
+    public boolean tryAcquire(String credentialsId, String workspace) {
+        return this.tryAcquire(credentialsId, workspace, System.currentTimeMillis());
+    }
+
+    synchronized boolean tryAcquire(String credentialsId, String workspace, long now) {
+        if (this.ratePerHour == 0) {
+            return true;
+        }
+
+        Bucket credentialsBucket = this.bucket(credentialsKey(credentialsId), now);
+        Bucket workspaceBucket = this.bucket(workspaceKey(workspace), now);
+        if (!credentialsBucket.hasToken(now) || !workspaceBucket.hasToken(now)) {
+            return false;
+        }
+        credentialsBucket.take(now);
+        workspaceBucket.take(now);
+
+        return true;
+    }
+
+    // the share of the emptier bucket which is still available, background work only uses what live traffic leaves
+    public double getAvailableFraction(String credentialsId, String workspace) {
+        return this.getAvailableFraction(credentialsId, workspace, System.currentTimeMillis());
+    }
+
+    synchronized double getAvailableFraction(String credentialsId, String workspace, long now) {
+        if (this.ratePerHour == 0) {
+            return 1;
+        }
+
+        Bucket credentialsBucket = this.bucket(credentialsKey(credentialsId), now);
+        Bucket workspaceBucket = this.bucket(workspaceKey(workspace), now);
+
+        return Math.min(credentialsBucket.getAvailableFraction(now), workspaceBucket.getAvailableFraction(now));
+    }
+
+    // adjusts the buckets from the X-RateLimit-* headers of a Bitbucket response
+    public void update(String credentialsId, String workspace, Map<String, String> headers) {
+        this.update(credentialsId, workspace, headers, System.currentTimeMillis());
+    }
+
+    synchronized void update(String credentialsId, String workspace, Map<String, String> headers, long now) {
+        if (this.ratePerHour == 0) {
+            return;
+        }
+
+        long limit = parse(header(headers, "X-RateLimit-Limit"));
+        long remaining = parse(header(headers, "X-RateLimit-Remaining"));
+        long reset = parse(header(headers, "X-RateLimit-Reset"));
+
+        for (Bucket bucket : new Bucket[] {
+                this.bucket(credentialsKey(credentialsId), now), this.bucket(workspaceKey(workspace), now) }) {
+            bucket.limit = limit;
+            bucket.ratePerMilli = this.rate(limit);
+            if (remaining >= 0 && remaining < bucket.tokens) {
+                bucket.tokens = remaining;
+            }
+            // quota exhausted, nothing will succeed before the reset time, given in epoch seconds
+            if (remaining == 0 && reset > 0) {
+                bucket.block(TimeUnit.SECONDS.toMillis(reset));
+            }
+        }
+    }
+
+    // without a lower limit from bitbucket the configured rate applies
+    private double rate(long limit) {
+        return (double) (limit > 0 && limit < this.ratePerHour ? limit : this.ratePerHour) / HOUR_MILLIS;
+    }
+
+    synchronized int getBucketCount() {
+        return this.buckets.size();
+    }
+
+    private Bucket bucket(String key, long now) {
+        Bucket bucket = this.buckets.get(key);
+        if (bucket == null) {
+            bucket = new Bucket((double) this.ratePerHour / HOUR_MILLIS, this.burst, now);
+            this.buckets.put(key, bucket);
+        } else {
+            bucket.refill(now);
+        }
+        bucket.lastUsed = now;
+
+        return bucket;
+    }
+
+    // every credential and workspace ever notified would otherwise keep its bucket for good
+    synchronized void sweep(long now) {
+        if (now - this.lastSweep < SWEEP_INTERVAL_MILLIS) {
+            return;
+        }
+        this.lastSweep = now;
+
+        Iterator<Bucket> buckets = this.buckets.values().iterator();
+        while (buckets.hasNext()) {
+            Bucket bucket = buckets.next();
+            bucket.refill(now);
+            if (now - bucket.lastUsed > IDLE_MILLIS && bucket.tokens >= bucket.capacity) {
+                buckets.remove();
+            }
+        }
+    }
+    private static String credentialsKey(String credentialsId) {
+        return "credentials:" + credentialsId;
+    }
+
+    private static String workspaceKey(String workspace) {
+        return "workspace:" + workspace;
+    }
+
+    private static String header(Map<String, String> headers, String name) {
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (name.equalsIgnoreCase(header.getKey())) {
+                    return header.getValue();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static long parse(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static class Bucket {
+        private int capacity;
+        private double ratePerMilli;
+        // the X-RateLimit-Limit of the last response, -1 if there was none
+        private long limit = -1;
+        // below zero while notifications wait for reserved tokens
+        private double tokens;
+        // refilled up to this time, in the future while bitbucket blocks the quota
+        private long updated;
+        private long lastUsed;
+
+        Bucket(double ratePerMilli, int capacity, long now) {
+            this.ratePerMilli = ratePerMilli;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.updated = now;
+            this.lastUsed = now;
+        }
+
+        void refill(long now) {
+            if (now > this.updated) {
+                this.tokens = Math.min(this.capacity, this.tokens + (now - this.updated) * this.ratePerMilli);
+                this.updated = now;
+            }
+        }
+
+        // nothing refills before the given time
+        void block(long until) {
+            this.updated = Math.max(this.updated, until);
+        }
+
+        boolean hasToken(long now) {
+            return this.updated <= now && this.tokens >= 1;
+        }
+
+        // returns how long to wait until the token taken is refilled
+        long take(long now) {
+            this.tokens -= 1;
+            long wait = Math.max(0, this.updated - now);
+            if (this.tokens < 0) {
+                wait += (long) Math.ceil(-this.tokens / this.ratePerMilli);
+            }
+
+            return wait;
+        }
+
+        double getAvailableFraction(long now) {
+            return this.updated > now ? 0 : Math.max(0, this.tokens) / this.capacity;
+        }
+    }
+}
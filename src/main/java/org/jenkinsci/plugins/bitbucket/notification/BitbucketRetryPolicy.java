@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.scribe.exceptions.OAuthConnectionException;
+
+public class BitbucketRetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final int DEFAULT_BASE_DELAY_SECONDS = 1;
+    public static final int DEFAULT_MAX_DELAY_SECONDS = 300;
+
+    private final Random random = new Random();
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public BitbucketRetryPolicy(int maxAttempts, int baseDelaySeconds, int maxDelaySeconds) {
+        this.maxAttempts = maxAttempts >= 1 ? maxAttempts : DEFAULT_MAX_ATTEMPTS;
+        this.baseDelayMillis = TimeUnit.SECONDS.toMillis(baseDelaySeconds > 0 ? baseDelaySeconds : DEFAULT_BASE_DELAY_SECONDS);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis,
+                TimeUnit.SECONDS.toMillis(maxDelaySeconds > 0 ? maxDelaySeconds : DEFAULT_MAX_DELAY_SECONDS));
+    }
+
+    public static boolean isRetryable(Throwable t) {
+        if (t instanceof BitbucketNotificationException) {
+            return ((BitbucketNotificationException) t).isRetryable();
+        }
+        // scribe wraps connection failures into an unchecked exception
+        return t instanceof IOException || t instanceof OAuthConnectionException;
+    }
+
+    // attempts counts the attempts made so far, including the one which just failed
+    public boolean shouldRetry(Throwable t, int attempts) {
+        return attempts < this.maxAttempts && isRetryable(t);
+    }
+
+    public long getDelayMillis(Throwable t, int attempts) {
+        // full jitter: a random delay up to the exponential backoff, so failing builds do not retry in lockstep
+        long backoff = this.baseDelayMillis << Math.min(attempts - 1, 30);
+        long delay = (long) (this.random.nextDouble() * Math.min(this.maxDelayMillis, backoff));
+
+        if (t instanceof BitbucketNotificationException) {
+            long retryAfter = parseRetryAfter(((BitbucketNotificationException) t).getRetryAfter());
+            if (retryAfter > delay) {
+                delay = retryAfter;
+            }
+        }
+
+        return delay;
+    }
+
+    // Retry-After is either a number of seconds or a HTTP date
+    static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return 0;
+        }
+
+        String value = retryAfter.trim();
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            // not a number of seconds, try as a date
+        }
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            Date date = format.parse(value);
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.scm;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.ConcurrentMap;
+
+// extracts owner and repository slug from a repository path, remembering the result for every path seen
+public class BitbucketRepositoryParser {
+
+    private static final int MAXIMUM_SIZE = 1000;
+    // cache values cannot be null, paths which could not be parsed map to this
+    private static final Repository UNPARSEABLE = new Repository(null, null);
+
+    private static final BitbucketRepositoryParser INSTANCE = new BitbucketRepositoryParser();
+
+    private final ConcurrentMap<String, Repository> repositories;
+
+    BitbucketRepositoryParser() {
+        Cache<String, Repository> cache = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE).build();
+        this.repositories = cache.asMap();
+    }
+
+    public static BitbucketRepositoryParser get() {
+        return INSTANCE;
+    }
+
+    // returns null when the path does not contain both an owner and a repository name
+    public Repository parse(String path) {
+        Repository repository = this.repositories.get(path);
+        if (repository == null) {
+            repository = parseUncached(path);
+            this.repositories.putIfAbsent(path, repository);
+        }
+
+        return repository == UNPARSEABLE ? null : repository;
+    }
+
+    // handles "/owner/slug.git" (https, ssh), "owner/slug.git" (scp like) and "/scm/owner/slug/" (trailing slash, JENKINS-49902)
+    static Repository parseUncached(String path) {
+        int end = path.length();
+        if (end > 0 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        if (path.startsWith(".git", end - 4)) {
+            end -= 4;
+        }
+
+        int slugStart = path.lastIndexOf('/', end - 1) + 1;
+        if (slugStart == 0 || slugStart == end) {
+            return UNPARSEABLE;
+        }
+
+        // the owner is everything between the first and the last slash, dropping a leading one
+        int ownerEnd = slugStart - 1;
+        int firstSlash = path.indexOf('/');
+        int ownerStart = firstSlash < ownerEnd ? firstSlash + 1 : 0;
+        if (ownerStart >= ownerEnd) {
+            return UNPARSEABLE;
+        }
+
+        return new Repository(path.substring(ownerStart, ownerEnd), path.substring(slugStart, end));
+    }
+
+    public static class Repository {
+        private final String owner;
+        private final String slug;
+
+        Repository(String owner, String slug) {
+            this.owner = owner;
+            this.slug = slug;
+        }
+
+        public String getOwner() {
+            return this.owner;
+        }
+
+        public String getSlug() {
+            return this.slug;
+        }
+    }
+}
@@ -24,17 +24,23 @@
 
 package org.jenkinsci.plugins.bitbucket.validator;
 
-import com.google.common.collect.ImmutableSet;
-import java.util.Set;
+import org.jenkinsci.plugins.bitbucket.api.BitbucketEndpoint;
 
 public class BitbucketHostValidator {
-    final Set<String> supportedDomains = ImmutableSet.of("bitbucket.org", "altssh.bitbucket.org");
 
+    // bitbucket.org and the hosts of the endpoints configured globally
     public boolean isValid(final String $value) {
-        return this.supportedDomains.contains($value);
+        return BitbucketEndpoint.forHost($value) != null;
     }
 
     public String renderError() {
-        return "Bitbucket build notifier support only repositories hosted in bitbucket.org";
+        StringBuilder hosts = new StringBuilder();
+        for (BitbucketEndpoint endpoint : BitbucketEndpoint.getAll()) {
+            for (String host : endpoint.getHostList()) {
+                hosts.append(hosts.length() == 0 ? "" : ", ").append(host);
+            }
+        }
+
+        return "Bitbucket build notifier support only repositories hosted in " + hosts;
     }
 }
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.bitbucket;
+
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusResource;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BitbucketBuildStatusHelperTest {
+
+    private static final String BUILT = "a83c709e9d514421ef614ef0a1117366c84c6304";
+    private static final String OTHER_BUILT = "0cc175b9c0f1b6a831c399e269772661d1e7a2b4";
+
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+    private final TaskListener listener = new StreamTaskListener(this.log);
+
+    @Test
+    public void notifiesTheCommitsLeadingUpToTheBuiltRevision() {
+        List<BitbucketBuildStatusResource> resources = BitbucketBuildStatusHelper.addChangeSetCommits(
+                changeSets(commits("c1", "c2", BUILT)), false, resources(resource("my-project", BUILT)), 20, this.listener);
+
+        assertEquals(Arrays.asList("my-project/" + BUILT, "my-project/c1", "my-project/c2"), describe(resources));
+    }
+
+    @Test
+    public void leavesOutCheckoutsWhichAreNotNotified() {
+        List<Set<String>> changeSets = changeSets(commits("library-1", "library-2"));
+
+        assertEquals(Arrays.asList("my-project/" + BUILT), describe(BitbucketBuildStatusHelper.addChangeSetCommits(
+                changeSets, false, resources(resource("my-project", BUILT)), 20, this.listener)));
+        // a freestyle build has no other checkout
+        assertEquals(Arrays.asList("my-project/" + BUILT, "my-project/library-1", "my-project/library-2"),
+                describe(BitbucketBuildStatusHelper.addChangeSetCommits(
+                        changeSets, true, resources(resource("my-project", BUILT)), 20, this.listener)));
+    }
+
+    @Test
+    public void sendsEachCommitToItsOwnRepository() {
+        List<BitbucketBuildStatusResource> resources = BitbucketBuildStatusHelper.addChangeSetCommits(
+                changeSets(commits("c1", BUILT), commits("o1", OTHER_BUILT)), false,
+                resources(resource("my-project", BUILT), resource("other-project", OTHER_BUILT)), 20, this.listener);
+
+        assertEquals(Arrays.asList("my-project/" + BUILT, "other-project/" + OTHER_BUILT, "my-project/c1",
+                "other-project/o1"), describe(resources));
+    }
+
+    @Test
+    public void notifiesEveryCommitOnce() {
+        List<BitbucketBuildStatusResource> resources = BitbucketBuildStatusHelper.addChangeSetCommits(
+                changeSets(commits("c1", BUILT), commits("c1", "c2", BUILT)), false,
+                resources(resource("my-project", BUILT)), 20, this.listener);
+
+        assertEquals(Arrays.asList("my-project/" + BUILT, "my-project/c1", "my-project/c2"), describe(resources));
+    }
+
+    @Test
+    public void capsTheCommitsPerBuild() throws Exception {
+        List<BitbucketBuildStatusResource> resources = BitbucketBuildStatusHelper.addChangeSetCommits(
+                changeSets(commits("c1", "c2", "c3", "c4", "c5", BUILT)), false,
+                resources(resource("my-project", BUILT)), 2, this.listener);
+
+        assertEquals(Arrays.asList("my-project/" + BUILT, "my-project/c1", "my-project/c2"), describe(resources));
+        this.listener.getLogger().flush();
+        assertTrue(this.log.toString("UTF-8").contains("notifies 2 of the 5 commits"));
+    }
+
+    private static BitbucketBuildStatusResource resource(String repoSlug, String commitId) {
+        return new BitbucketBuildStatusResource("my-team", repoSlug, commitId, "bitbucket.org");
+    }
+
+    private static List<BitbucketBuildStatusResource> resources(BitbucketBuildStatusResource... resources) {
+        return Arrays.asList(resources);
+    }
+
+    private static Set<String> commits(String... commitIds) {
+        return new LinkedHashSet<String>(Arrays.asList(commitIds));
+    }
+
+    private static List<Set<String>> changeSets(Set<String>... changeSets) {
+        List<Set<String>> list = new ArrayList<Set<String>>();
+        Collections.addAll(list, changeSets);
+        return list;
+    }
+
+    private static List<String> describe(List<BitbucketBuildStatusResource> resources) {
+        List<String> described = new ArrayList<String>();
+        for (BitbucketBuildStatusResource resource : resources) {
+            described.add(resource.getRepoSlug() + "/" + resource.getCommitId());
+        }
+
+        return described;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.bitbucket;
+
+import hudson.model.Result;
+
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusResource;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BitbucketStatusReconcilerTest {
+
+    private static final String URL = "https://ci.example.com/job/my-project/42/";
+
+    @Test
+    public void expectsTheResultWhereTheFinalStatusOfTheRunNeverMadeIt() {
+        BitbucketBuildStatusAction.SentStatus sent = sent(BitbucketBuildStatus.INPROGRESS, true);
+
+        BitbucketBuildStatus expected = BitbucketStatusReconciler.expectedStatus(sent, false, Result.FAILURE);
+        assertEquals(BitbucketBuildStatus.FAILED, expected.getState());
+        assertEquals("key", expected.getKey());
+        assertEquals(URL, expected.getUrl());
+        assertEquals(BitbucketBuildStatus.SUCCESSFUL,
+                BitbucketStatusReconciler.expectedStatus(sent, false, Result.SUCCESS).getState());
+    }
+
+    @Test
+    public void expectsWhatWasSentOtherwise() {
+        BitbucketBuildStatusAction.SentStatus running = sent(BitbucketBuildStatus.INPROGRESS, true);
+        assertSame(running.getBuildStatus(), BitbucketStatusReconciler.expectedStatus(running, true, null));
+
+        // a stage key keeps the state the step gave it
+        BitbucketBuildStatusAction.SentStatus stage = sent(BitbucketBuildStatus.INPROGRESS, false);
+        assertSame(stage.getBuildStatus(), BitbucketStatusReconciler.expectedStatus(stage, false, Result.SUCCESS));
+
+        BitbucketBuildStatusAction.SentStatus done = sent(BitbucketBuildStatus.SUCCESSFUL, true);
+        assertSame(done.getBuildStatus(), BitbucketStatusReconciler.expectedStatus(done, false, Result.SUCCESS));
+    }
+
+    @Test
+    public void repairsAMissingOrDifferentStatus() {
+        BitbucketBuildStatus expected = status(BitbucketBuildStatus.SUCCESSFUL, URL, "my-project #42");
+
+        assertTrue(BitbucketStatusReconciler.needsRepair(expected, null));
+        assertTrue(BitbucketStatusReconciler.needsRepair(expected, status(BitbucketBuildStatus.INPROGRESS, URL, "my-project #42")));
+        // another build of the job sent the same state
+        assertTrue(BitbucketStatusReconciler.needsRepair(expected,
+                status(BitbucketBuildStatus.SUCCESSFUL, "https://ci.example.com/job/my-project/41/", "my-project #41")));
+    }
+
+    @Test
+    public void leavesAnEditedNameAlone() {
+        BitbucketBuildStatus expected = status(BitbucketBuildStatus.SUCCESSFUL, URL, "my-project #42");
+
+        assertFalse(BitbucketStatusReconciler.needsRepair(expected, status(BitbucketBuildStatus.SUCCESSFUL, URL, "renamed")));
+    }
+
+    private static BitbucketBuildStatusAction.SentStatus sent(String state, boolean runKey) {
+        return new BitbucketBuildStatusAction.SentStatus(new BitbucketBuildStatusResource("my-team", "my-project",
+                "a83c709e9d514421ef614ef0a1117366c84c6304", "bitbucket.org"), status(state, URL, "my-project #42"),
+                "credentials", runKey);
+    }
+
+    private static BitbucketBuildStatus status(String state, String url, String name) {
+        return new BitbucketBuildStatus(state, "key", url, name, "");
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.bitbucket.api;
+
+import java.util.Arrays;
+
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusResource;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BitbucketEndpointTest {
+
+    private static final String COMMIT = "a83c709e9d514421ef614ef0a1117366c84c6304";
+
+    private final BitbucketEndpoint dataCenter = new BitbucketEndpoint(BitbucketEndpoint.TYPE_DATA_CENTER,
+            "git.example.com, ssh.git.example.com", " https://git.example.com/bitbucket ", null);
+
+    @After
+    public void resetEndpoints() {
+        BitbucketEndpoint.setConfigured(null);
+    }
+
+    @Test
+    public void buildsCloudUrls() {
+        BitbucketBuildStatusResource resource = new BitbucketBuildStatusResource("my-team", "my-project", COMMIT,
+                "bitbucket.org");
+
+        assertEquals("https://api.bitbucket.org/2.0/repositories/my-team/my-project/commit/" + COMMIT + "/statuses/build",
+                BitbucketEndpoint.CLOUD.getBuildStatusUrl(resource));
+        assertEquals("https://api.bitbucket.org/2.0/repositories/my-team/my-project/commit/" + COMMIT + "/statuses",
+                BitbucketEndpoint.CLOUD.getStatusesUrl(resource));
+        assertEquals(BitbucketApi.OAUTH_ENDPOINT, BitbucketEndpoint.CLOUD.getCredentialsUrl());
+    }
+
+    @Test
+    public void buildsDataCenterUrls() {
+        BitbucketBuildStatusResource resource = new BitbucketBuildStatusResource("PROJ", "my-project", COMMIT,
+                "git.example.com");
+
+        // data center keeps the statuses per commit, the api url gets its trailing slash
+        assertEquals("https://git.example.com/bitbucket/rest/build-status/1.0/commits/" + COMMIT,
+                this.dataCenter.getBuildStatusUrl(resource));
+        assertEquals("https://git.example.com/bitbucket/rest/build-status/1.0/commits/" + COMMIT,
+                this.dataCenter.getStatusesUrl(resource));
+        assertEquals("https://git.example.com/bitbucket/", this.dataCenter.getCredentialsUrl());
+        assertTrue(this.dataCenter.isDataCenter());
+    }
+
+    @Test
+    public void resolvesEndpointsByCloneHost() throws Exception {
+        BitbucketEndpoint.setConfigured(Arrays.asList(this.dataCenter));
+
+        assertSame(this.dataCenter, BitbucketEndpoint.forHost("git.example.com"));
+        assertSame(this.dataCenter, BitbucketEndpoint.forHost("SSH.git.example.com"));
+        assertSame(BitbucketEndpoint.CLOUD, BitbucketEndpoint.forHost("altssh.bitbucket.org"));
+        assertNull(BitbucketEndpoint.forHost("github.com"));
+        // recorded before endpoints were configurable
+        assertSame(BitbucketEndpoint.CLOUD, BitbucketEndpoint.forResource(
+                new BitbucketBuildStatusResource("my-team", "my-project", COMMIT)));
+    }
+
+    @Test
+    public void configuredEndpointsComeBeforeTheCloud() {
+        BitbucketEndpoint proxy = new BitbucketEndpoint(BitbucketEndpoint.TYPE_CLOUD, "bitbucket.org",
+                "https://bitbucket-proxy.example.com/2.0", "https://bitbucket-proxy.example.com/site/oauth2");
+        BitbucketEndpoint.setConfigured(Arrays.asList(proxy));
+
+        assertSame(proxy, BitbucketEndpoint.forHost("bitbucket.org"));
+        assertSame(BitbucketEndpoint.CLOUD, BitbucketEndpoint.forHost("altssh.bitbucket.org"));
+        assertEquals("https://bitbucket-proxy.example.com/site/oauth2/", proxy.getCredentialsUrl());
+    }
+
+    @Test(expected = Exception.class)
+    public void failsForHostsWithoutEndpoint() throws Exception {
+        BitbucketEndpoint.forResource(new BitbucketBuildStatusResource("my-team", "my-project", COMMIT, "github.com"));
+    }
+}
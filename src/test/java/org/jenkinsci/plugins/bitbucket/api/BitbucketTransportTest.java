@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BitbucketTransportTest {
+
+    @Test
+    public void completesWithTheResponse() throws Exception {
+        BitbucketTransport transport = new BitbucketTransport() {
+            public BitbucketHttpResponse execute(BitbucketHttpRequest request) {
+                return new BitbucketHttpResponse(201, Collections.<String, String>emptyMap(), request.getUrl());
+            }
+        };
+
+        BitbucketHttpResponse response = transport.executeAsync(
+                new BitbucketHttpRequest("POST", "https://api.bitbucket.org/2.0/")).get(5, TimeUnit.SECONDS);
+
+        assertEquals(201, response.getCode());
+        assertEquals("https://api.bitbucket.org/2.0/", response.getBody());
+    }
+
+    @Test
+    public void failsWithTheExceptionOfTheRequest() throws Exception {
+        BitbucketTransport transport = new BitbucketTransport() {
+            public BitbucketHttpResponse execute(BitbucketHttpRequest request) throws IOException {
+                throw new IOException("connection reset");
+            }
+        };
+
+        try {
+            transport.executeAsync(new BitbucketHttpRequest("GET", "https://api.bitbucket.org/2.0/")).get(5, TimeUnit.SECONDS);
+            fail("the request failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void rejectsRequestsBeyondTheQueue() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        BitbucketTransport transport = new BitbucketTransport() {
+            public BitbucketHttpResponse execute(BitbucketHttpRequest request) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return new BitbucketHttpResponse(200, Collections.<String, String>emptyMap(), "");
+            }
+        };
+
+        List<ListenableFuture<BitbucketHttpResponse>> accepted = new ArrayList<ListenableFuture<BitbucketHttpResponse>>();
+        try {
+            for (int i = 0; i < BitbucketTransport.ASYNC_THREADS + BitbucketTransport.ASYNC_QUEUE_SIZE; i++) {
+                accepted.add(transport.executeAsync(new BitbucketHttpRequest("GET", "https://api.bitbucket.org/2.0/")));
+            }
+
+            try {
+                transport.executeAsync(new BitbucketHttpRequest("GET", "https://api.bitbucket.org/2.0/")).get(5, TimeUnit.SECONDS);
+                fail("the executor is bounded");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+        } finally {
+            release.countDown();
+        }
+
+        for (ListenableFuture<BitbucketHttpResponse> future : accepted) {
+            assertEquals(200, future.get(5, TimeUnit.SECONDS).getCode());
+        }
+    }
+}
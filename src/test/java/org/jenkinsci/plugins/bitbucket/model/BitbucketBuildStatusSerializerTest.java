@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.bitbucket.model;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BitbucketBuildStatusSerializerTest {
+
+    // the notifier used to send the Gson output of BitbucketBuildStatusSerializer; pretty printing only changed the
+    // whitespace and html escaping is not json, the streamed bytes have to match everything else
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(BitbucketBuildStatus.class, new BitbucketBuildStatusSerializer())
+            .disableHtmlEscaping()
+            .create();
+
+    @Test
+    public void writesAllFieldsLikeGson() throws Exception {
+        assertSameJson(new BitbucketBuildStatus(BitbucketBuildStatus.SUCCESSFUL, "0cc175b9c0f1b6a831c399e269772661",
+                "https://ci.example.com/job/my-project/42/", "my \"project\" #42", "1 of 2 tests passed \\ \u00fcn\u00efc\u00f8d\u00e9 \u20ac \ud83d\ude00"));
+    }
+
+    @Test
+    public void leavesOutEmptyOptionalsLikeGson() throws Exception {
+        assertSameJson(new BitbucketBuildStatus(BitbucketBuildStatus.INPROGRESS, "key", "https://ci.example.com/"));
+        assertSameJson(new BitbucketBuildStatus(BitbucketBuildStatus.FAILED, "key", "https://ci.example.com/", "name"));
+    }
+
+    @Test
+    public void leavesOutNullFieldsLikeGson() throws Exception {
+        assertSameJson(new BitbucketBuildStatus(null, "key", "https://ci.example.com/", "name", "description"));
+        assertSameJson(new BitbucketBuildStatus(BitbucketBuildStatus.FAILED, null, null, "name", null));
+        assertSameJson(new BitbucketBuildStatus(null, null, null, null, null));
+    }
+
+    private void assertSameJson(BitbucketBuildStatus buildStatus) throws Exception {
+        String expected = this.gson.toJson(buildStatus);
+
+        assertEquals(expected, new String(BitbucketBuildStatusSerializer.toJsonBytes(buildStatus), "UTF-8"));
+    }
+}
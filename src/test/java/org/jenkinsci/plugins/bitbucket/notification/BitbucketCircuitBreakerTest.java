@@ -0,0 +1,193 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BitbucketCircuitBreakerTest {
+
+    private static final int THRESHOLD = 3;
+    private static final long COOL_DOWN = TimeUnit.SECONDS.toMillis(60);
+    private static final long START = TimeUnit.DAYS.toMillis(10000);
+
+    private static final Runnable NOBODY = new Runnable() {
+        public void run() {
+        }
+    };
+
+    @Test
+    public void opensAtTheThreshold() {
+        BitbucketCircuitBreaker.Circuit circuit = new BitbucketCircuitBreaker.Circuit("api.bitbucket.org credentials");
+
+        circuit.failed(START, THRESHOLD);
+        circuit.failed(START, THRESHOLD);
+        assertEquals(BitbucketCircuitBreaker.CLOSED, circuit.getState());
+        assertEquals(0, circuit.acquire(START, COOL_DOWN, NOBODY));
+
+        circuit.failed(START, THRESHOLD);
+        assertEquals(BitbucketCircuitBreaker.OPEN, circuit.getState());
+        assertEquals(COOL_DOWN - 1000, circuit.acquire(START + 1000, COOL_DOWN, NOBODY));
+    }
+
+    @Test
+    public void successResetsTheFailureCount() {
+        BitbucketCircuitBreaker.Circuit circuit = new BitbucketCircuitBreaker.Circuit("api.bitbucket.org credentials");
+
+        circuit.failed(START, THRESHOLD);
+        circuit.failed(START, THRESHOLD);
+        circuit.succeeded();
+        circuit.failed(START, THRESHOLD);
+
+        assertEquals(BitbucketCircuitBreaker.CLOSED, circuit.getState());
+        assertEquals(1, circuit.getConsecutiveFailures());
+    }
+
+    @Test
+    public void letsOneProbeThroughAfterTheCoolDown() {
+        BitbucketCircuitBreaker.Circuit circuit = open();
+        long coolDownOver = START + COOL_DOWN;
+
+        assertEquals(0, circuit.acquire(coolDownOver, COOL_DOWN, NOBODY));
+        assertEquals(BitbucketCircuitBreaker.HALF_OPEN, circuit.getState());
+        assertEquals(BitbucketCircuitBreaker.PROBING, circuit.acquire(coolDownOver, COOL_DOWN, NOBODY));
+        assertEquals(1, circuit.getDeferred());
+    }
+
+    @Test
+    public void closesAndWakesTheWaitersOnceTheProbeSucceeds() {
+        BitbucketCircuitBreaker.Circuit circuit = open();
+        long coolDownOver = START + COOL_DOWN;
+        circuit.acquire(coolDownOver, COOL_DOWN, NOBODY);
+        Waiter first = new Waiter();
+        Waiter second = new Waiter();
+        circuit.acquire(coolDownOver, COOL_DOWN, first);
+        circuit.acquire(coolDownOver, COOL_DOWN, second);
+
+        wake(circuit.succeeded());
+
+        assertEquals(BitbucketCircuitBreaker.CLOSED, circuit.getState());
+        assertEquals(1, first.woken);
+        assertEquals(1, second.woken);
+        assertEquals(0, circuit.getDeferred());
+        // nobody is woken twice
+        wake(circuit.succeeded());
+        assertEquals(1, first.woken);
+    }
+
+    @Test
+    public void opensAgainAndWakesTheWaitersWhenTheProbeFails() {
+        BitbucketCircuitBreaker.Circuit circuit = open();
+        long coolDownOver = START + COOL_DOWN;
+        circuit.acquire(coolDownOver, COOL_DOWN, NOBODY);
+        Waiter waiter = new Waiter();
+        circuit.acquire(coolDownOver, COOL_DOWN, waiter);
+
+        // a single failure of the probe is enough, whatever the threshold
+        wake(circuit.failed(coolDownOver + 10, THRESHOLD));
+
+        assertEquals(BitbucketCircuitBreaker.OPEN, circuit.getState());
+        assertEquals(1, waiter.woken);
+        // the waiter asks again and waits for the next cool down
+        assertEquals(COOL_DOWN, circuit.acquire(coolDownOver + 10, COOL_DOWN, NOBODY));
+    }
+
+    @Test
+    public void replacesAProbeWhichGotLost() {
+        BitbucketCircuitBreaker.Circuit circuit = open();
+        long coolDownOver = START + COOL_DOWN;
+        circuit.acquire(coolDownOver, COOL_DOWN, NOBODY);
+        long probeStartedAt = circuit.getProbeStartedAt();
+        Waiter waiter = new Waiter();
+        circuit.acquire(coolDownOver, COOL_DOWN, waiter);
+
+        // only the first waiter of a probe watches it
+        assertTrue(circuit.watchProbe());
+        assertFalse(circuit.watchProbe());
+
+        wake(circuit.probeLost(probeStartedAt));
+        assertEquals(1, waiter.woken);
+        assertEquals(0, circuit.acquire(coolDownOver + COOL_DOWN + 1, COOL_DOWN, NOBODY));
+        assertTrue(circuit.getProbeStartedAt() > probeStartedAt);
+        // the watch of the old probe has nothing to do anymore
+        assertTrue(circuit.probeLost(probeStartedAt).isEmpty());
+    }
+
+    @Test
+    public void evictsOnlyIdleClosedCircuits() {
+        BitbucketCircuitBreaker.Circuit circuit = open();
+        assertFalse(circuit.evictIfIdle(START + BitbucketCircuitBreaker.IDLE_MILLIS + 1));
+
+        BitbucketCircuitBreaker.Circuit failing = new BitbucketCircuitBreaker.Circuit("api.bitbucket.org credentials");
+        failing.failed(START, THRESHOLD);
+        assertFalse(failing.evictIfIdle(START + 1000));
+        assertTrue(failing.evictIfIdle(START + BitbucketCircuitBreaker.IDLE_MILLIS + 1));
+        // a failure racing with the eviction goes to the circuit replacing it
+        assertNull(failing.failed(START + BitbucketCircuitBreaker.IDLE_MILLIS + 2, THRESHOLD));
+
+        circuit.acquire(START + COOL_DOWN, COOL_DOWN, NOBODY);
+        circuit.succeeded();
+        assertTrue(circuit.evictIfIdle(START + COOL_DOWN));
+    }
+
+    @Test
+    public void onlyFailuresOfTheHostCount() {
+        assertTrue(BitbucketCircuitBreaker.isHostFailure(new IOException("connection reset")));
+        assertTrue(BitbucketCircuitBreaker.isHostFailure(new BitbucketNotificationException("HTTP 503", 503, null)));
+        assertFalse(BitbucketCircuitBreaker.isHostFailure(new BitbucketNotificationException("HTTP 400", 400, null)));
+        assertFalse(BitbucketCircuitBreaker.isHostFailure(new BitbucketNotificationException("HTTP 429", 429, null)));
+    }
+
+    private static BitbucketCircuitBreaker.Circuit open() {
+        BitbucketCircuitBreaker.Circuit circuit = new BitbucketCircuitBreaker.Circuit("api.bitbucket.org credentials");
+        for (int i = 0; i < THRESHOLD; i++) {
+            circuit.failed(START, THRESHOLD);
+        }
+
+        return circuit;
+    }
+
+    private static void wake(List<Runnable> waiters) {
+        for (Runnable waiter : waiters) {
+            waiter.run();
+        }
+    }
+
+    private static class Waiter implements Runnable {
+        private int woken;
+
+        public void run() {
+            this.woken++;
+        }
+    }
+}
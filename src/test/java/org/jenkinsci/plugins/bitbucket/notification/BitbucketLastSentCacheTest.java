@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusResource;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BitbucketLastSentCacheTest {
+
+    private final BitbucketLastSentCache cache = new BitbucketLastSentCache();
+
+    @Test
+    public void skipsTheStatusBitbucketShows() {
+        BitbucketNotification inProgress = notification(BitbucketBuildStatus.INPROGRESS);
+        assertFalse(this.cache.isAlreadySent(inProgress));
+        this.cache.submitted(inProgress);
+        this.cache.sent(inProgress);
+
+        assertTrue(this.cache.isAlreadySent(notification(BitbucketBuildStatus.INPROGRESS)));
+        assertFalse(this.cache.isAlreadySent(notification(BitbucketBuildStatus.SUCCESSFUL)));
+        assertEquals(1, this.cache.getSkippedCount());
+    }
+
+    @Test
+    public void sendsTheAcknowledgedStatusAgainWhileAnotherIsInFlight() {
+        BitbucketNotification inProgress = notification(BitbucketBuildStatus.INPROGRESS);
+        this.cache.submitted(inProgress);
+        this.cache.sent(inProgress);
+        // submitted and not acknowledged yet, bitbucket is going to show it
+        this.cache.submitted(notification(BitbucketBuildStatus.SUCCESSFUL));
+
+        assertFalse(this.cache.isAlreadySent(notification(BitbucketBuildStatus.INPROGRESS)));
+        assertFalse(this.cache.isAlreadySent(notification(BitbucketBuildStatus.SUCCESSFUL)));
+    }
+
+    @Test
+    public void sendsTheAcknowledgedStatusAgainAfterAnotherFailed() {
+        BitbucketNotification inProgress = notification(BitbucketBuildStatus.INPROGRESS);
+        this.cache.submitted(inProgress);
+        this.cache.sent(inProgress);
+        // never acknowledged, it is unknown what bitbucket shows
+        this.cache.submitted(notification(BitbucketBuildStatus.FAILED));
+
+        assertFalse(this.cache.isAlreadySent(notification(BitbucketBuildStatus.INPROGRESS)));
+    }
+
+    private static BitbucketNotification notification(String state) {
+        BitbucketBuildStatusResource resource = new BitbucketBuildStatusResource("my-team", "my-project",
+                "a83c709e9d514421ef614ef0a1117366c84c6304", "bitbucket.org");
+        BitbucketBuildStatus buildStatus = new BitbucketBuildStatus(state, "key", "https://ci.example.com/job/my-project/42/");
+
+        return new BitbucketNotification(null, resource, buildStatus, null, "my-project");
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusResource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BitbucketNotificationDispatcherTest {
+
+    private static final String COMMIT = "a83c709e9d514421ef614ef0a1117366c84c6304";
+
+    private final RecordingSender sender = new RecordingSender();
+    private BitbucketNotificationDispatcher dispatcher;
+
+    @Before
+    public void createDispatcher() {
+        this.dispatcher = new BitbucketNotificationDispatcher(this.sender);
+        BitbucketRateLimiter.get().configure(0, 0);
+    }
+
+    @After
+    public void stopDispatcher() throws Exception {
+        this.sender.release.countDown();
+        this.dispatcher.shutdown(5, TimeUnit.SECONDS);
+        BitbucketRateLimiter.get().configure(BitbucketRateLimiter.DEFAULT_RATE, BitbucketRateLimiter.DEFAULT_BURST);
+    }
+
+    @Test
+    public void completesTheFutureWithTheResponse() throws Exception {
+        ListenableFuture<BitbucketNotificationResult> result = this.submit(COMMIT, BitbucketBuildStatus.SUCCESSFUL);
+
+        assertEquals(201, result.get(5, TimeUnit.SECONDS).getResponseCode());
+        assertEquals(Arrays.asList(COMMIT + " SUCCESSFUL"), this.sender.sent);
+    }
+
+    @Test
+    public void coalescesStatusesQueuedBehindTheOneBeingSent() throws Exception {
+        this.sender.blockOn = BitbucketBuildStatus.INPROGRESS;
+        ListenableFuture<BitbucketNotificationResult> inProgress = this.submit(COMMIT, BitbucketBuildStatus.INPROGRESS);
+        assertTrue(this.sender.blocked.await(5, TimeUnit.SECONDS));
+
+        ListenableFuture<BitbucketNotificationResult> successful = this.submit(COMMIT, BitbucketBuildStatus.SUCCESSFUL);
+        ListenableFuture<BitbucketNotificationResult> failed = this.submit(COMMIT, BitbucketBuildStatus.FAILED);
+        this.sender.release.countDown();
+
+        failed.get(5, TimeUnit.SECONDS);
+        // the superseded notification completes with the outcome of the one which replaced it
+        assertEquals(201, successful.get(5, TimeUnit.SECONDS).getResponseCode());
+        inProgress.get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(COMMIT + " INPROGRESS", COMMIT + " FAILED"), this.sender.sent);
+    }
+
+    @Test
+    public void skipsTheStatusBitbucketShows() throws Exception {
+        this.submit(COMMIT, BitbucketBuildStatus.SUCCESSFUL).get(5, TimeUnit.SECONDS);
+
+        assertTrue(this.submit(COMMIT, BitbucketBuildStatus.SUCCESSFUL).get(5, TimeUnit.SECONDS).isSkipped());
+        assertEquals(1, this.sender.sent.size());
+    }
+
+    @Test
+    public void sendsTheShownStatusAgainWhileAnotherIsInFlight() throws Exception {
+        this.submit(COMMIT, BitbucketBuildStatus.INPROGRESS).get(5, TimeUnit.SECONDS);
+        this.sender.blockOn = BitbucketBuildStatus.SUCCESSFUL;
+        this.submit(COMMIT, BitbucketBuildStatus.SUCCESSFUL);
+        assertTrue(this.sender.blocked.await(5, TimeUnit.SECONDS));
+
+        ListenableFuture<BitbucketNotificationResult> again = this.submit(COMMIT, BitbucketBuildStatus.INPROGRESS);
+        this.sender.release.countDown();
+
+        assertFalse(again.get(5, TimeUnit.SECONDS).isSkipped());
+        assertEquals(Arrays.asList(COMMIT + " INPROGRESS", COMMIT + " SUCCESSFUL", COMMIT + " INPROGRESS"),
+                this.sender.sent);
+    }
+
+    @Test
+    public void aBlockedLaneDoesNotHoldUpTheOthers() throws Exception {
+        String otherCommit = commitOnAnotherLane();
+        this.sender.blockOn = BitbucketBuildStatus.INPROGRESS;
+        ListenableFuture<BitbucketNotificationResult> blocked = this.submit(COMMIT, BitbucketBuildStatus.INPROGRESS);
+        assertTrue(this.sender.blocked.await(5, TimeUnit.SECONDS));
+
+        this.submit(otherCommit, BitbucketBuildStatus.SUCCESSFUL).get(5, TimeUnit.SECONDS);
+        assertFalse(blocked.isDone());
+    }
+
+    @Test
+    public void shutdownDrainsTheQueue() throws Exception {
+        this.sender.blockOn = BitbucketBuildStatus.INPROGRESS;
+        List<ListenableFuture<BitbucketNotificationResult>> results = new ArrayList<ListenableFuture<BitbucketNotificationResult>>();
+        results.add(this.submit(COMMIT, BitbucketBuildStatus.INPROGRESS));
+        assertTrue(this.sender.blocked.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            results.add(this.submit("commit-" + i, BitbucketBuildStatus.SUCCESSFUL));
+        }
+
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    // released right away then
+                }
+                sender.release.countDown();
+            }
+        }.start();
+
+        assertEquals(Collections.<String>emptyList(), this.dispatcher.shutdown(5, TimeUnit.SECONDS));
+        for (ListenableFuture<BitbucketNotificationResult> result : results) {
+            assertTrue(result.isDone());
+        }
+        assertEquals(6, this.sender.sent.size());
+    }
+
+    @Test
+    public void shutdownReportsWhatIsStillBeingSent() throws Exception {
+        this.sender.blockOn = BitbucketBuildStatus.INPROGRESS;
+        this.submit(COMMIT, BitbucketBuildStatus.INPROGRESS);
+        assertTrue(this.sender.blocked.await(5, TimeUnit.SECONDS));
+
+        List<String> undelivered = this.dispatcher.shutdown(100, TimeUnit.MILLISECONDS);
+        assertEquals(1, undelivered.size());
+        assertTrue(undelivered.get(0).contains(COMMIT) && undelivered.get(0).endsWith("(still sending)"));
+    }
+
+    @Test
+    public void rejectsNotificationsOnceShutDown() throws Exception {
+        this.dispatcher.shutdown(5, TimeUnit.SECONDS);
+
+        try {
+            this.submit(COMMIT, BitbucketBuildStatus.SUCCESSFUL).get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+            assertTrue(this.sender.sent.isEmpty());
+            return;
+        }
+        throw new AssertionError("a notification submitted after the shutdown must not be sent");
+    }
+
+    private ListenableFuture<BitbucketNotificationResult> submit(String commit, String state) {
+        return this.dispatcher.submit(notification(commit, state));
+    }
+
+    private static BitbucketNotification notification(String commit, String state) {
+        BitbucketBuildStatusResource resource = new BitbucketBuildStatusResource("my-team", "my-project", commit,
+                "bitbucket.org");
+        BitbucketBuildStatus buildStatus = new BitbucketBuildStatus(state, "key", "https://ci.example.com/job/my-project/42/");
+
+        return new BitbucketNotification(null, resource, buildStatus, null, "my-project");
+    }
+
+    // the lanes are picked by the hash of the status key
+    private static String commitOnAnotherLane() {
+        int lane = lane(COMMIT);
+        for (int i = 0; ; i++) {
+            if (lane("commit-" + i) != lane) {
+                return "commit-" + i;
+            }
+        }
+    }
+
+    private static int lane(String commit) {
+        String statusKey = notification(commit, BitbucketBuildStatus.SUCCESSFUL).getStatusKey();
+        return (statusKey.hashCode() & Integer.MAX_VALUE) % BitbucketNotificationDispatcher.LANES;
+    }
+
+    private static class RecordingSender implements BitbucketNotificationDispatcher.Sender {
+        private final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+        // the notifications with this state wait for the release before they are answered
+        private volatile String blockOn;
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        public BitbucketNotificationResult send(BitbucketNotification notification) throws Exception {
+            String state = notification.getBuildStatus().getState();
+            this.sent.add(notification.getBuildStatusResource().getCommitId() + " " + state);
+            if (state.equals(this.blockOn)) {
+                this.blocked.countDown();
+                this.release.await(10, TimeUnit.SECONDS);
+            }
+
+            return new BitbucketNotificationResult(201);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusResource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BitbucketNotificationJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysNotificationsWhichWereNotAcknowledged() throws Exception {
+        File file = new File(this.folder.getRoot(), "journal.log");
+        BitbucketNotificationJournal journal = BitbucketNotificationJournal.open(file);
+        long sent = append(journal, "INPROGRESS");
+        long pending = append(journal, "SUCCESSFUL");
+        journal.acknowledge(sent);
+        journal.close(5, TimeUnit.SECONDS);
+
+        BitbucketNotificationJournal reopened = BitbucketNotificationJournal.open(file);
+        try {
+            assertEquals(1, reopened.getRecoveredEntries().size());
+            BitbucketNotificationJournal.Entry entry = reopened.getRecoveredEntries().get(0);
+            assertEquals(pending, entry.getId());
+            assertEquals("SUCCESSFUL", entry.getBuildStatus().getState());
+            assertEquals("owner", entry.getBuildStatusResource().getOwner());
+            assertEquals("repo", entry.getBuildStatusResource().getRepoSlug());
+            // ids go on after the highest one recorded
+            assertTrue(reopened.nextId() > pending);
+        } finally {
+            reopened.close(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void compactsToThePendingRecords() throws Exception {
+        File file = new File(this.folder.getRoot(), "journal.log");
+        BitbucketNotificationJournal journal = BitbucketNotificationJournal.open(file);
+        List<Long> ids = new ArrayList<Long>();
+        for (int i = 0; i < 10; i++) {
+            ids.add(append(journal, "INPROGRESS"));
+        }
+        for (int i = 0; i < 9; i++) {
+            journal.acknowledge(ids.get(i));
+        }
+        // the journal is compacted when it is closed
+        journal.close(5, TimeUnit.SECONDS);
+
+        List<String> lines = FileUtils.readLines(file, "UTF-8");
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("\"id\":" + ids.get(9)));
+    }
+
+    @Test
+    public void keepsTakingRecordsWhenTheCompactionFails() throws Exception {
+        File file = new File(this.folder.getRoot(), "journal.log");
+        BitbucketNotificationJournal journal = BitbucketNotificationJournal.open(file);
+        // the compacted journal can not be written
+        File compacted = new File(file.getPath() + ".tmp");
+        assertTrue(compacted.mkdir());
+
+        List<Long> ids = new ArrayList<Long>();
+        for (int i = 0; i < BitbucketNotificationJournal.COMPACT_AFTER_ACKS; i++) {
+            long id = journal.nextId();
+            journal.append(entry(id, "INPROGRESS"));
+            ids.add(id);
+        }
+        for (long id : ids) {
+            journal.acknowledge(id);
+        }
+        // synced with or after the last acknowledgements, so the second record comes after the failed compaction
+        long beforeFailure = append(journal, "SUCCESSFUL");
+        long afterFailure = append(journal, "FAILED");
+        journal.close(5, TimeUnit.SECONDS);
+
+        assertTrue(compacted.delete());
+        BitbucketNotificationJournal reopened = BitbucketNotificationJournal.open(file);
+        try {
+            assertEquals(2, reopened.getRecoveredEntries().size());
+            assertEquals(beforeFailure, reopened.getRecoveredEntries().get(0).getId());
+            assertEquals(afterFailure, reopened.getRecoveredEntries().get(1).getId());
+        } finally {
+            reopened.close(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void skipsTornRecords() throws Exception {
+        File file = new File(this.folder.getRoot(), "journal.log");
+        BitbucketNotificationJournal journal = BitbucketNotificationJournal.open(file);
+        append(journal, "SUCCESSFUL");
+        journal.close(5, TimeUnit.SECONDS);
+        write(file, "{\"op\":\"P\",\"id\":");
+
+        BitbucketNotificationJournal reopened = BitbucketNotificationJournal.open(file);
+        try {
+            assertEquals(1, reopened.getRecoveredEntries().size());
+        } finally {
+            reopened.close(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void deadLettersExpiredRecords() throws Exception {
+        File file = new File(this.folder.getRoot(), "journal.log");
+        long expired = System.currentTimeMillis() - BitbucketNotificationJournal.MAX_AGE_MILLIS - 1000;
+        write(file, "{\"op\":\"P\",\"id\":1,\"createdAt\":" + expired + ",\"owner\":\"owner\",\"repoSlug\":\"repo\"," +
+                "\"commitId\":\"abc\",\"state\":\"SUCCESSFUL\",\"key\":\"key\"}");
+        // written by an older version without a creation time
+        write(file, "{\"op\":\"P\",\"id\":2,\"owner\":\"owner\",\"repoSlug\":\"repo\"," +
+                "\"commitId\":\"abc\",\"state\":\"FAILED\",\"key\":\"other\"}");
+
+        BitbucketNotificationJournal journal = BitbucketNotificationJournal.open(file);
+        try {
+            assertEquals(1, journal.getRecoveredEntries().size());
+            assertEquals(2, journal.getRecoveredEntries().get(0).getId());
+            assertTrue(journal.getRecoveredEntries().get(0).getCreatedAt() > expired);
+
+            File deadLetters = BitbucketNotificationJournal.getDeadLetterFile(file);
+            List<String> lines = FileUtils.readLines(deadLetters, "UTF-8");
+            assertEquals(1, lines.size());
+            assertTrue(lines.get(0).contains("\"id\":1"));
+            assertFalse(FileUtils.readFileToString(file, "UTF-8").contains("\"id\":1,"));
+        } finally {
+            journal.close(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void rejectsRecordsOnceClosed() throws Exception {
+        BitbucketNotificationJournal journal = BitbucketNotificationJournal.open(new File(this.folder.getRoot(), "journal.log"));
+        journal.close(5, TimeUnit.SECONDS);
+
+        try {
+            journal.append(entry(journal.nextId(), "SUCCESSFUL")).get();
+        } catch (Exception e) {
+            assertTrue(e.getCause() instanceof IOException);
+            return;
+        }
+        throw new AssertionError("a closed journal must not accept records");
+    }
+
+    private static long append(BitbucketNotificationJournal journal, String state) throws Exception {
+        long id = journal.nextId();
+        // the future completes once the record was synced
+        journal.append(entry(id, state)).get(5, TimeUnit.SECONDS);
+
+        return id;
+    }
+
+    private static BitbucketNotificationJournal.Entry entry(long id, String state) {
+        BitbucketNotification notification = new BitbucketNotification(null,
+                new BitbucketBuildStatusResource("owner", "repo", "a83c709e9d514421ef614ef0a1117366c84c6304"),
+                new BitbucketBuildStatus(state, "key", "https://jenkins.example.com/job/project/1/"), null, "project");
+
+        return BitbucketNotificationJournal.Entry.from(id, notification);
+    }
+
+    private static void write(File file, String line) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+        try {
+            writer.write(line);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+}
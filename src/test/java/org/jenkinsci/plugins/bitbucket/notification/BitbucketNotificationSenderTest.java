@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BitbucketNotificationSenderTest {
+
+    @Test
+    public void readsACloudStatusPage() {
+        String url = "https://api.bitbucket.org/2.0/repositories/my-team/my-project/commit/abc/statuses";
+        BitbucketNotificationSender.StatusPage page = BitbucketNotificationSender.StatusPage.parse("{\"values\": [" +
+                "{\"state\": \"SUCCESSFUL\", \"key\": \"key\", \"url\": \"https://ci.example.com/42/\", \"name\": \"#42\"}," +
+                "{\"state\": \"FAILED\", \"key\": \"other\", \"url\": \"https://ci.example.com/43/\"}]," +
+                "\"next\": \"" + url + "?page=2\"}", url);
+
+        BitbucketBuildStatus shown = page.find("key");
+        assertEquals(BitbucketBuildStatus.SUCCESSFUL, shown.getState());
+        assertEquals("https://ci.example.com/42/", shown.getUrl());
+        assertEquals(BitbucketBuildStatus.FAILED, page.find("other").getState());
+        assertNull(page.find("missing"));
+        assertEquals(url + "?page=2", page.getNext());
+    }
+
+    @Test
+    public void pagesThroughDataCenterStatuses() {
+        String url = "https://git.example.com/rest/build-status/1.0/commits/abc";
+        String body = "{\"values\": [{\"state\": \"INPROGRESS\", \"key\": \"key\", \"url\": \"https://ci.example.com/42/\"}]," +
+                "\"isLastPage\": false, \"nextPageStart\": 25}";
+
+        assertEquals(url + "?start=25", BitbucketNotificationSender.StatusPage.parse(body, url).getNext());
+        assertEquals(url + "?start=25", BitbucketNotificationSender.StatusPage.parse(body, url + "?start=0").getNext());
+        assertNull(BitbucketNotificationSender.StatusPage.parse("{\"values\": [], \"isLastPage\": true}", url).getNext());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import java.util.Collections;
+
+import org.jenkinsci.plugins.bitbucket.api.BitbucketEndpoint;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatus;
+import org.jenkinsci.plugins.bitbucket.model.BitbucketBuildStatusResource;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BitbucketNotificationTest {
+
+    private static final String COMMIT = "a83c709e9d514421ef614ef0a1117366c84c6304";
+
+    @After
+    public void resetEndpoints() {
+        BitbucketEndpoint.setConfigured(null);
+    }
+
+    @Test
+    public void clonesFromHostsOfOneEndpointShareTheStatusKey() {
+        assertEquals(statusKey("bitbucket.org"), statusKey("altssh.bitbucket.org"));
+        assertEquals(statusKey("bitbucket.org"), statusKey("BITBUCKET.ORG"));
+        // recorded before endpoints were configurable, meant for bitbucket.org
+        assertEquals(statusKey("bitbucket.org"), statusKey(null));
+    }
+
+    @Test
+    public void theSameRepositoryOnAnotherInstanceHasItsOwnStatusKey() {
+        BitbucketEndpoint.setConfigured(Collections.singletonList(new BitbucketEndpoint(BitbucketEndpoint.TYPE_DATA_CENTER,
+                "git.example.com ssh.git.example.com", "https://git.example.com/", null)));
+
+        assertEquals(statusKey("git.example.com"), statusKey("ssh.git.example.com"));
+        assertFalse(statusKey("git.example.com").equals(statusKey("bitbucket.org")));
+    }
+
+    @Test
+    public void hostsWithoutEndpointKeepTheirHost() {
+        assertFalse(statusKey("unknown.example.com").equals(statusKey("other.example.com")));
+    }
+
+    private static String statusKey(String host) {
+        BitbucketBuildStatusResource resource = new BitbucketBuildStatusResource("my-team", "my-project", COMMIT, host);
+        BitbucketBuildStatus buildStatus = new BitbucketBuildStatus(BitbucketBuildStatus.SUCCESSFUL, "key",
+                "https://ci.example.com/job/my-project/42/");
+
+        return new BitbucketNotification(null, resource, buildStatus, null, "my-project").getStatusKey();
+    }
+}
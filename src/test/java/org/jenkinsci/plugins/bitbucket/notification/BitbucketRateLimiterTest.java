@@ -0,0 +1,201 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BitbucketRateLimiterTest {
+
+    // one token per second
+    private static final int RATE = 3600;
+    private static final long START = TimeUnit.DAYS.toMillis(10000);
+
+    private BitbucketRateLimiter limiter;
+
+    @Before
+    public void createLimiter() {
+        this.limiter = new BitbucketRateLimiter();
+        this.limiter.configure(RATE, 2);
+    }
+
+    @Test
+    public void refillsAtTheConfiguredRate() {
+        assertTrue(this.limiter.tryAcquire("credentials", "workspace", START));
+        assertTrue(this.limiter.tryAcquire("credentials", "workspace", START));
+        assertFalse(this.limiter.tryAcquire("credentials", "workspace", START));
+        assertFalse(this.limiter.tryAcquire("credentials", "workspace", START + 500));
+
+        assertTrue(this.limiter.tryAcquire("credentials", "workspace", START + 1001));
+        assertFalse(this.limiter.tryAcquire("credentials", "workspace", START + 1001));
+    }
+
+    @Test
+    public void holdsAtMostTheBurst() {
+        assertEquals(0, this.limiter.acquire("credentials", "workspace", START));
+        long later = START + TimeUnit.MINUTES.toMillis(30);
+
+        assertEquals(0, this.limiter.acquire("credentials", "workspace", later));
+        assertEquals(0, this.limiter.acquire("credentials", "workspace", later));
+        assertWait(1000, this.limiter.acquire("credentials", "workspace", later));
+    }
+
+    @Test
+    public void servesWaitersInTheOrderTheyAsked() {
+        this.limiter.acquire("credentials", "workspace", START);
+        this.limiter.acquire("credentials", "workspace", START);
+
+        // every notification reserves its token, the ones asking later wait behind it
+        assertWait(1000, this.limiter.acquire("credentials", "workspace", START));
+        assertWait(2000, this.limiter.acquire("credentials", "other workspace", START));
+        assertWait(3000, this.limiter.acquire("credentials", "workspace", START));
+        // asking again once the first token is due does not jump the queue
+        assertWait(3000, this.limiter.acquire("credentials", "other workspace", START + 1001));
+    }
+
+    @Test
+    public void backgroundWorkNeverQueuesUp() {
+        this.limiter.acquire("credentials", "workspace", START);
+        this.limiter.acquire("credentials", "workspace", START);
+        this.limiter.acquire("credentials", "workspace", START);
+
+        // the token refilled after a second belongs to the notification which reserved it
+        assertFalse(this.limiter.tryAcquire("credentials", "workspace", START + 1001));
+        assertEquals(0, this.limiter.getAvailableFraction("credentials", "workspace", START + 1001), 0.001);
+    }
+
+    @Test
+    public void followsALowerLimitOfBitbucketUntilItIsGone() {
+        this.limiter.update("credentials", "workspace", headers("360", "100", null), START);
+        this.limiter.acquire("credentials", "workspace", START);
+        this.limiter.acquire("credentials", "workspace", START);
+        assertWait(10000, this.limiter.acquire("credentials", "workspace", START));
+
+        // the debt is paid back at the configured rate again
+        this.limiter.update("credentials", "workspace", Collections.<String, String>emptyMap(), START);
+        assertWait(2000, this.limiter.acquire("credentials", "workspace", START));
+    }
+
+    @Test
+    public void waitsForTheResetOnceTheQuotaIsExhausted() {
+        long reset = START + TimeUnit.MINUTES.toMillis(5);
+        this.limiter.update("credentials", "workspace",
+                headers("1000", "0", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(reset))), START);
+
+        assertEquals(0, this.limiter.getAvailableFraction("credentials", "workspace", START), 0.001);
+        assertFalse(this.limiter.tryAcquire("credentials", "workspace", START));
+        assertWait(reset - START + 1000, this.limiter.acquire("credentials", "workspace", START));
+    }
+
+    @Test
+    public void dropsIdleBuckets() {
+        this.limiter.acquire("credentials", "workspace", START);
+        assertEquals(2, this.limiter.getBucketCount());
+
+        this.limiter.sweep(START + TimeUnit.MINUTES.toMillis(30));
+        assertEquals(2, this.limiter.getBucketCount());
+
+        this.limiter.sweep(START + TimeUnit.HOURS.toMillis(2));
+        assertEquals(0, this.limiter.getBucketCount());
+    }
+
+    @Test
+    public void keepsBucketsInDebt() {
+        for (int i = 0; i < 10000; i++) {
+            this.limiter.acquire("credentials", "workspace", START);
+        }
+
+        this.limiter.sweep(START + TimeUnit.HOURS.toMillis(2));
+        assertEquals(2, this.limiter.getBucketCount());
+    }
+
+    @Test
+    public void savingAnUnchangedConfigurationKeepsTheBuckets() {
+        this.limiter.acquire("credentials", "workspace", START);
+        this.limiter.acquire("credentials", "workspace", START);
+
+        this.limiter.configure(RATE, 2, START);
+        assertEquals(2, this.limiter.getBucketCount());
+        assertWait(1000, this.limiter.acquire("credentials", "workspace", START));
+    }
+
+    @Test
+    public void reconfiguringKeepsTheDebt() {
+        for (int i = 0; i < 12; i++) {
+            this.limiter.acquire("credentials", "workspace", START);
+        }
+
+        // ten tokens are owed, paid back at the new rate of two per second
+        this.limiter.configure(2 * RATE, 5, START);
+        assertWait(5500, this.limiter.acquire("credentials", "workspace", START));
+    }
+
+    @Test
+    public void reconfiguringKeepsWhatBitbucketTold() {
+        long reset = START + TimeUnit.MINUTES.toMillis(5);
+        this.limiter.update("credentials", "workspace",
+                headers("360", "0", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(reset))), START);
+
+        this.limiter.configure(2 * RATE, 5, START);
+        assertFalse(this.limiter.tryAcquire("credentials", "workspace", START));
+        // still blocked until the reset, then refilled at the lower limit of bitbucket
+        assertWait(reset - START + 10000, this.limiter.acquire("credentials", "workspace", START));
+    }
+
+    @Test
+    public void rateOfZeroDisablesTheLimit() {
+        this.limiter.configure(0, 1);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, this.limiter.acquire("credentials", "workspace", START));
+        }
+        assertEquals(0, this.limiter.getBucketCount());
+    }
+
+    private static Map<String, String> headers(String limit, String remaining, String reset) {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("X-RateLimit-Limit", limit);
+        headers.put("X-RateLimit-Remaining", remaining);
+        if (reset != null) {
+            headers.put("X-RateLimit-Reset", reset);
+        }
+
+        return headers;
+    }
+
+    // refill is computed in floating point, the wait may be off by a millisecond
+    private static void assertWait(long expected, long actual) {
+        assertEquals(expected, actual, 1);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.notification;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BitbucketRetryPolicyTest {
+
+    @Test
+    public void parsesRetryAfterSeconds() {
+        assertEquals(TimeUnit.SECONDS.toMillis(120), BitbucketRetryPolicy.parseRetryAfter("120"));
+        assertEquals(TimeUnit.SECONDS.toMillis(5), BitbucketRetryPolicy.parseRetryAfter(" 5 "));
+        assertEquals(0, BitbucketRetryPolicy.parseRetryAfter("0"));
+    }
+
+    @Test
+    public void parsesRetryAfterHttpDate() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        String inAMinute = format.format(new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1)));
+
+        long delay = BitbucketRetryPolicy.parseRetryAfter(inAMinute);
+        // the date has a resolution of one second and the clock moved on meanwhile
+        assertTrue(delay > TimeUnit.SECONDS.toMillis(55));
+        assertTrue(delay <= TimeUnit.MINUTES.toMillis(1));
+    }
+
+    @Test
+    public void retryAfterDateInThePastMeansNow() {
+        assertEquals(0, BitbucketRetryPolicy.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+
+    @Test
+    public void ignoresMissingOrMalformedRetryAfter() {
+        assertEquals(0, BitbucketRetryPolicy.parseRetryAfter(null));
+        assertEquals(0, BitbucketRetryPolicy.parseRetryAfter(""));
+        assertEquals(0, BitbucketRetryPolicy.parseRetryAfter("soon"));
+    }
+
+    @Test
+    public void retryAfterOutweighsTheBackoff() {
+        BitbucketRetryPolicy policy = new BitbucketRetryPolicy(5, 1, 300);
+        BitbucketNotificationException tooManyRequests = new BitbucketNotificationException("HTTP 429", 429, "30");
+
+        assertEquals(TimeUnit.SECONDS.toMillis(30), policy.getDelayMillis(tooManyRequests, 1));
+    }
+
+    @Test
+    public void backoffStaysWithinTheMaximumDelay() {
+        BitbucketRetryPolicy policy = new BitbucketRetryPolicy(50, 1, 10);
+        BitbucketNotificationException unavailable = new BitbucketNotificationException("HTTP 503", 503, null);
+
+        for (int attempts = 1; attempts < 40; attempts++) {
+            long delay = policy.getDelayMillis(unavailable, attempts);
+            assertTrue(delay >= 0);
+            assertTrue(delay <= TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Flagbit GmbH & Co. KG.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bitbucket.scm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class BitbucketRepositoryParserTest {
+
+    // repository paths as URIish returns them for https, ssh and scp-like urls
+    private static final String[] PATHS = {
+            "/my-team/my-project.git",
+            "my-team/my-project.git",
+            "/my-team/my-project",
+            "my-team/my-project",
+            "/my-team/my-project/",
+            "/my-team/my-project.git/",
+            "/scm/my-team/my-project",
+            "/scm/my-team/my-project.git",
+            "/scm/my-team/my-project/",
+            "/bitbucket/scm/my-team/my-project.git",
+            "/~my.user/my-project.git",
+            "/my-team/my.project.git",
+            "/my-project.git",
+            "/",
+            "",
+    };
+
+    @Test
+    public void parsesLikeTheStringOperationsItReplaced() {
+        BitbucketRepositoryParser parser = new BitbucketRepositoryParser();
+        for (String path : PATHS) {
+            String[] expected = parseAsBefore(path);
+            BitbucketRepositoryParser.Repository actual = parser.parse(path);
+            if (expected == null) {
+                assertNull(path, actual);
+            } else {
+                assertNotNull(path, actual);
+                assertEquals(path, expected[0], actual.getOwner());
+                assertEquals(path, expected[1], actual.getSlug());
+            }
+        }
+    }
+
+    @Test
+    public void keepsGitInTheMiddleOfTheName() {
+        BitbucketRepositoryParser.Repository repository = new BitbucketRepositoryParser().parse("/my-team/my.github.io.git");
+
+        assertEquals("my-team", repository.getOwner());
+        // the old parsing cut the name at the first .git and sent "my"
+        assertEquals("my.github.io", repository.getSlug());
+    }
+
+    @Test
+    public void rejectsPathsWithoutOwner() {
+        BitbucketRepositoryParser parser = new BitbucketRepositoryParser();
+
+        // the old parsing failed with a StringIndexOutOfBoundsException on paths without any slash
+        assertNull(parser.parse("my-project/"));
+        assertNull(parser.parse("my-project.git"));
+        assertNull(parser.parse("/my-project.git"));
+    }
+
+    @Test
+    public void remembersParsedPaths() {
+        BitbucketRepositoryParser parser = new BitbucketRepositoryParser();
+
+        assertSame(parser.parse("/my-team/my-project.git"), parser.parse("/my-team/my-project.git"));
+    }
+
+    // BitbucketBuildStatusHelper.createBuildStatusResource before the parser, returns null where it gave up
+    private static String[] parseAsBefore(String repoUrl) {
+        if (repoUrl.endsWith("/")) {
+            repoUrl = repoUrl.substring(0, repoUrl.length() - 1);
+        }
+
+        String repoName = repoUrl.substring(
+                repoUrl.lastIndexOf("/") + 1,
+                repoUrl.contains(".git") ? repoUrl.indexOf(".git") : repoUrl.length()
+        );
+        if (repoName.isEmpty()) {
+            return null;
+        }
+
+        String userName = repoUrl.substring(0, repoUrl.lastIndexOf("/" + repoName));
+        if (userName.contains("/")) {
+            userName = userName.substring(userName.indexOf("/") + 1, userName.length());
+        }
+        if (userName.isEmpty()) {
+            return null;
+        }
+
+        return new String[] { userName, repoName };
+    }
+}